@@ -4,4 +4,6 @@ import ru.mai.lessons.rpks.model.Message;
 
 public interface KafkaWriter {
     public void processing(Message message); // отправляет сообщения с deduplicationState = true в выходной топик. Конфигурация берется из файла *.conf
+
+    public void flush(); // дожидается отправки всех сообщений, вызывается перед фиксацией смещений Kafka
 }
@@ -1,9 +1,13 @@
 package ru.mai.lessons.rpks;
 
+import org.apache.kafka.common.TopicPartition;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
 import ru.mai.lessons.rpks.model.Message;
-import ru.mai.lessons.rpks.model.Rule;
 
-public interface RedisClient {
+import java.util.List;
+import java.util.Map;
+
+public interface RedisClient extends AutoCloseable {
     /** Нужно реализовать этот интерфейс таким образом:
      Чтение данных по ключу, чтобы проверить есть ли уже такой ключ в Redis.
      Если есть, значит это дулю и устанавливаем deduplicationState = false.
@@ -12,5 +16,17 @@ public interface RedisClient {
      Реализация RedisClient должна работать в RuleProcessor.
     */
 
-    public boolean checkDuplicate(Message message, Rule[] rules);
+    public boolean checkDuplicate(Message message, KeyPlan keyPlan); // ключ строится по плану из текущих правил, см. KeyPlan
+
+    public boolean[] checkDuplicates(List<Message> messages, KeyPlan keyPlan); // проверяет пачку сообщений за один запрос к хранилищу; дубли внутри пачки определяются без запроса, прошло первое из них. Результат i - значение deduplicationState для i-го сообщения
+
+    public default void checkpoint(Map<TopicPartition, Long> offsets) { // сохраняет записанные ключи вместе со смещениями Kafka перед их фиксацией, чтобы после перезапуска повтор с этих смещений не пропустил дубли
+    }
+
+    public default Map<TopicPartition, Long> getCheckpointOffsets() { // смещения, до которых в хранилище есть ключи; пусто, если хранилище их не ведёт
+        return Map.of();
+    }
+
+    @Override
+    public void close(); // закрывает соединения с хранилищем ключей, вызывается при остановке сервиса
 }
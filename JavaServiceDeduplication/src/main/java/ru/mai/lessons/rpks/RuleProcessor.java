@@ -1,12 +1,18 @@
 package ru.mai.lessons.rpks;
 
+import ru.mai.lessons.rpks.dedup.KeyPlan;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.List;
+
 public interface RuleProcessor {
     public Message processing(Message message, Rule[] rules);
     // применяет правила дедубликации к сообщениям и устанавливает в них
     // deduplicationState значение true, если сообщение удовлетворяет условиям всех правил.
-    // Несколько правил объединяются в один ключ, значит если несколько правил, то из них составляет
-    // один ключ и одним запросом проверяется в Redis. Если у правил разное время, то берётся большее из них.
+    // Правила с одним deduplication_id объединяются в один ключ этой группы со временем жизни, наибольшим среди её правил;
+    // у каждой группы свой ключ. Ключи всех групп сообщения проверяются одним запросом в Redis,
+    // и сообщение - дубль (deduplicationState = false), если оно дубль хотя бы по одной группе.
+
+    public List<Message> processing(List<Message> messages, KeyPlan keyPlan); // применяет правила дедубликации к пачке сообщений из одного poll и проставляет deduplicationState каждому из них. План ключа составляется при обновлении правил, см. DbReaderImpl
 }
@@ -0,0 +1,74 @@
+package ru.mai.lessons.rpks.dedup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ключ дедубликации сообщения по одной группе правил (deduplication_id): значения полей активных правил группы
+ * и наибольшее из их времён жизни.
+ * <p>
+ * Кроме текстового ключа (значения через ":") хранится 128-битный хэш значений. Значения хэшируются с длиной,
+ * поэтому разные наборы значений не склеиваются в один ключ, как "a:b" + "c" и "a" + "b:c" в текстовом.
+ * Ключи строит {@link KeyPlan}.
+ */
+@Getter
+public final class DedupKey {
+    private final long deduplicationId;
+    private final String text;
+    private final long ttlSec;
+    private final long digestHigh;
+    private final long digestLow;
+
+    @Getter(lombok.AccessLevel.NONE)
+    private final byte[] prefix;
+    @Getter(lombok.AccessLevel.NONE)
+    private final String textPrefix;
+
+    DedupKey(long deduplicationId, byte[] prefix, String textPrefix, String text, long ttlSec, long digestHigh, long digestLow) {
+        this.deduplicationId = deduplicationId;
+        this.prefix = prefix;
+        this.textPrefix = textPrefix;
+        this.text = text;
+        this.ttlSec = ttlSec;
+        this.digestHigh = digestHigh;
+        this.digestLow = digestLow;
+    }
+
+    // ключ первой группы правил; для правил с одним deduplication_id - единственный ключ сообщения
+    public static DedupKey of(JsonNode jsonNode, Rule[] rules) {
+        DedupKey[] keys = KeyPlan.compile(rules).extract(jsonNode);
+        return keys.length > 0 ? keys[0] : new DedupKey(0L, "dedup:0:".getBytes(StandardCharsets.UTF_8), "", "", 0L, 0L, 0L);
+    }
+
+    public boolean isEmpty() {
+        return text.isBlank();
+    }
+
+    // пустой ключ и ключ с нулевым временем жизни не хранятся, поэтому по такой группе сообщение не может быть дублем
+    public boolean isStored() {
+        return !isEmpty() && ttlSec > 0;
+    }
+
+    // ключ для хранилища в режиме текстовых ключей: значения полей, как до разделения правил на группы;
+    // если групп несколько, перед ними "dedup:<deduplication_id>:", чтобы одинаковые значения разных групп не совпадали
+    public String textKey() {
+        return textPrefix + text;
+    }
+
+    public byte[] digest() {
+        byte[] digest = new byte[KeyDigest.SIZE];
+        KeyDigest.toBytes(digestHigh, digestLow, digest, 0);
+        return digest;
+    }
+
+    // ключ для хранилища: "dedup:<deduplication_id>:" и 16 байт хэша
+    public byte[] hashedKey() {
+        byte[] key = new byte[prefix.length + KeyDigest.SIZE];
+        System.arraycopy(prefix, 0, key, 0, prefix.length);
+        KeyDigest.toBytes(digestHigh, digestLow, key, prefix.length);
+        return key;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.mai.lessons.rpks.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Согласованное хэширование ключей по узлам Redis с виртуальными узлами.
+ * <p>
+ * Каждый узел занимает virtualNodes точек на кольце 64-битных хэшей, ключ принадлежит узлу первой точки
+ * не меньше его хэша. Точки узла зависят только от его адреса, поэтому при добавлении N+1-го узла
+ * на него переезжает около 1/(N+1) ключей, а остальные остаются на своих узлах.
+ */
+public final class HashRing {
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("Hash ring needs at least one node and one virtual node");
+        }
+
+        long[][] entries = new long[nodes.size() * virtualNodes][];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                byte[] name = (nodes.get(node) + "#" + i).getBytes(StandardCharsets.UTF_8);
+                entries[node * virtualNodes + i] = new long[]{KeyDigest.hash(name, name.length)[0], node};
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+
+        this.points = new long[entries.length];
+        this.owners = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    // индекс узла в списке, переданном в конструктор
+    public int nodeFor(long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+}
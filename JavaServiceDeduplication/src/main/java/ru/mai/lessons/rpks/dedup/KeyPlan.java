@@ -0,0 +1,230 @@
+package ru.mai.lessons.rpks.dedup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемый план построения ключей дедубликации, составляемый один раз при обновлении правил из БД.
+ * <p>
+ * Активные правила с одним deduplication_id образуют независимую политику дедубликации: у каждой группы свой ключ
+ * из значений её полей, своё время жизни (наибольшее среди полей, найденных в сообщении) и префикс
+ * "dedup:<deduplication_id>:". Сообщение - дубль, если оно дубль хотя бы по одной из политик.
+ * Текстовый ключ единственной группы остаётся без префикса, как ключи, записанные до появления групп.
+ * <p>
+ * Сообщение разбирается потоково один раз для всех групп: значения остальных полей пропускаются,
+ * а разбор прекращается, как только прочитаны все поля ключей.
+ */
+public final class KeyPlan {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    private static final KeyPlan EMPTY = compile(new Rule[0]);
+
+    private final int ruleCount;
+    private final String[] fields;
+    private final long[] ttls;
+    private final long[] deduplicationIds;
+    private final byte[][] prefixes;
+    private final String[] textPrefixes;
+    private final int[] groupStarts;
+    private final Map<String, int[]> positions = new HashMap<>();
+
+    private KeyPlan(Rule[] rules) {
+        // поля группируются по deduplication_id в порядке первого появления группы, внутри группы - в порядке правил
+        Map<Long, List<Rule>> groups = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            if (Boolean.TRUE.equals(rule.getIsActive())) {
+                long deduplicationId = rule.getDeduplicationId() == null ? 0L : rule.getDeduplicationId();
+                groups.computeIfAbsent(deduplicationId, id -> new ArrayList<>()).add(rule);
+            }
+        }
+
+        int fieldCount = groups.values().stream().mapToInt(List::size).sum();
+        this.ruleCount = rules.length;
+        this.fields = new String[fieldCount];
+        this.ttls = new long[fieldCount];
+        this.deduplicationIds = new long[groups.size()];
+        this.prefixes = new byte[groups.size()][];
+        this.textPrefixes = new String[groups.size()];
+        this.groupStarts = new int[groups.size() + 1];
+
+        int group = 0;
+        int i = 0;
+        for (Map.Entry<Long, List<Rule>> entry : groups.entrySet()) {
+            deduplicationIds[group] = entry.getKey();
+            String prefix = "dedup:" + entry.getKey() + ":";
+            prefixes[group] = prefix.getBytes(StandardCharsets.UTF_8);
+            textPrefixes[group] = groups.size() == 1 ? "" : prefix;
+            groupStarts[group] = i;
+            for (Rule rule : entry.getValue()) {
+                fields[i] = rule.getFieldName();
+                ttls[i] = rule.getTimeToLiveSec() == null ? 0L : rule.getTimeToLiveSec();
+                int[] fieldPositions = positions.get(fields[i]);
+                positions.put(fields[i], fieldPositions == null ? new int[]{i} : append(fieldPositions, i));
+                i++;
+            }
+            group++;
+        }
+        groupStarts[group] = i;
+    }
+
+    public static KeyPlan compile(Rule[] rules) {
+        return rules == null ? EMPTY : new KeyPlan(rules);
+    }
+
+    public static KeyPlan empty() {
+        return EMPTY;
+    }
+
+    // false - правил в БД нет совсем, все сообщения проходят
+    public boolean hasRules() {
+        return ruleCount > 0;
+    }
+
+    public int fieldCount() {
+        return fields.length;
+    }
+
+    public int groupCount() {
+        return deduplicationIds.length;
+    }
+
+    // ключи сообщения по группам deduplication_id, в порядке групп; ключ группы без найденных полей пуст
+    public DedupKey[] extract(String json) throws IOException {
+        String[] values = SCRATCH.get().values(fields.length);
+        int remaining = positions.size();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                    int[] fieldPositions = positions.get(parser.getCurrentName());
+                    JsonToken token = parser.nextToken();
+                    if (fieldPositions == null || values[fieldPositions[0]] != null) {
+                        parser.skipChildren();
+                        continue;
+                    }
+
+                    String value = text(parser, token);
+                    for (int position : fieldPositions) {
+                        values[position] = value;
+                    }
+                    remaining--;
+                }
+            }
+        }
+
+        return build(values);
+    }
+
+    public DedupKey[] extract(JsonNode jsonNode) {
+        String[] values = SCRATCH.get().values(fields.length);
+        for (int i = 0; i < fields.length; i++) {
+            JsonNode fieldNode = jsonNode.get(fields[i]);
+            values[i] = fieldNode == null ? null : fieldNode.asText();
+        }
+
+        return build(values);
+    }
+
+    // текст значения так же, как JsonNode.asText(): числа в каноническом виде, у объектов и массивов - пустая строка
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue().toString();
+            case VALUE_NUMBER_FLOAT:
+                return Double.toString(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return "true";
+            case VALUE_FALSE:
+                return "false";
+            case VALUE_NULL:
+                return "null";
+            default:
+                parser.skipChildren();
+                return "";
+        }
+    }
+
+    private DedupKey[] build(String[] values) {
+        DedupKey[] keys = new DedupKey[deduplicationIds.length];
+        for (int group = 0; group < keys.length; group++) {
+            keys[group] = build(values, group);
+        }
+        return keys;
+    }
+
+    private DedupKey build(String[] values, int group) {
+        Scratch scratch = SCRATCH.get();
+        StringBuilder keyBuilder = scratch.keyBuilder;
+        keyBuilder.setLength(0);
+        int length = 0;
+        long ttl = 0L;
+
+        for (int i = groupStarts[group]; i < groupStarts[group + 1]; i++) {
+            String value = values[i];
+            if (value == null) {
+                continue;
+            }
+
+            keyBuilder.append(value).append(":");
+            ttl = Math.max(ttl, ttls[i]);
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            byte[] material = scratch.material(length + 4 + bytes.length);
+            length = putInt(material, length, bytes.length);
+            System.arraycopy(bytes, 0, material, length, bytes.length);
+            length += bytes.length;
+        }
+
+        long[] digest = KeyDigest.hash(scratch.material, length);
+        return new DedupKey(deduplicationIds[group], prefixes[group], textPrefixes[group], keyBuilder.toString(), ttl, digest[0], digest[1]);
+    }
+
+    private static int putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+        return offset + 4;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    // буферы потока, переиспользуемые между сообщениями
+    private static final class Scratch {
+        private final StringBuilder keyBuilder = new StringBuilder();
+        private String[] values = new String[8];
+        private byte[] material = new byte[256];
+
+        private String[] values(int size) {
+            if (values.length < size) {
+                values = new String[size];
+            }
+            Arrays.fill(values, 0, size, null);
+            return values;
+        }
+
+        private byte[] material(int size) {
+            if (material.length < size) {
+                material = Arrays.copyOf(material, Math.max(material.length * 2, size));
+            }
+            return material;
+        }
+    }
+}
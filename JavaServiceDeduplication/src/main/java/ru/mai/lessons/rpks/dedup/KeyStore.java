@@ -0,0 +1,30 @@
+package ru.mai.lessons.rpks.dedup;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+public interface KeyStore extends AutoCloseable {
+    public boolean putIfAbsent(long high, long low, long ttlSec); // записывает 128-битный ключ на ttlSec секунд; false - действующий ключ уже есть, сообщение - дубль
+
+    public boolean contains(long high, long low); // true - ключ записан и ещё не истёк
+
+    public long size(); // число занятых слотов, включая истёкшие, но ещё не освобождённые
+
+    public long getCapacity(); // наибольшее число ключей
+
+    public long getExpirations(); // ключи, удалённые по истечении времени жизни
+
+    public long getEvictions(); // ключи, вытесненные до истечения из-за переполнения
+
+    public default void checkpoint(Map<TopicPartition, Long> offsets) { // сохраняет записанные ключи на диск вместе со смещениями Kafka, которые фиксируются следом
+    }
+
+    public default Map<TopicPartition, Long> getCheckpointOffsets() { // смещения последнего сохранения; пусто, если хранилище не переживает перезапуск
+        return Map.of();
+    }
+
+    @Override
+    public default void close() {
+    }
+}
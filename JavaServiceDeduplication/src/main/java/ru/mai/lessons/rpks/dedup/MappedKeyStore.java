@@ -0,0 +1,348 @@
+package ru.mai.lessons.rpks.dedup;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Хранилище ключей дедубликации в файле, отображённом в память: переживает перезапуск сервиса.
+ * <p>
+ * Файл - заголовок и хэш-таблица с открытой адресацией из слотов по 24 байта: старшая и младшая половины хэша
+ * и время истечения в миллисекундах (0 - слот пуст). При старте файл только отображается в память,
+ * поэтому время запуска не зависит от числа ключей. Размер таблицы задаётся при создании файла.
+ * <p>
+ * Истёкшие слоты освобождаются лениво: когда встречаются при поиске ключа, а при переполнении -
+ * проходом по следующим {@value #SWEEP_SLOTS} слотам. Если и там нет истёкших, вытесняется ключ,
+ * который истекает раньше остальных в просмотренных слотах, а если просмотренные слоты пусты - проход продолжается.
+ * <p>
+ * {@link #checkpoint(Map)} сбрасывает изменённые страницы на диск и записывает рядом, в файл {@code <path>.offsets},
+ * смещения Kafka, которые будут зафиксированы следом. После сбоя по ним видно, до какого смещения в хранилище
+ * есть ключи: если зафиксированное смещение меньше, сообщения между ними уже отправлены и их можно пропустить,
+ * если больше - ключей этих сообщений в хранилище нет.
+ */
+@Slf4j
+public final class MappedKeyStore implements KeyStore {
+    static final int SWEEP_SLOTS = 4096;
+
+    private static final long MAGIC = 0x5250_4b53_4444_5550L; // "RPKSDDUP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int SLOT_SIZE = 24;
+    private static final int SEGMENT_BITS = 22;
+    private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+
+    // смещения полей заголовка
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int SLOTS_OFFSET = 16;
+    private static final int CAPACITY_OFFSET = 24;
+    private static final int SIZE_OFFSET = 32;
+    private static final int CHECKPOINT_OFFSET = 40;
+
+    private final LongSupplier clock;
+    private final Path offsetsPath;
+    private final Map<TopicPartition, Long> offsets;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final long capacity;
+    private final long mask;
+
+    private long size;
+    private long sweepCursor;
+    private long expirations;
+    private long evictions;
+
+    public MappedKeyStore(Path path, long capacity) {
+        this(path, capacity, System::currentTimeMillis);
+    }
+
+    public MappedKeyStore(Path path, long capacity, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.clock = clock;
+        this.offsetsPath = path.resolveSibling(path.getFileName() + ".offsets");
+        try {
+            boolean exists = Files.exists(path) && Files.size(path) > 0;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            long slots;
+            if (exists) {
+                if (header.getLong(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                    throw new IllegalStateException("Not a deduplication key store: " + path);
+                }
+                slots = header.getLong(SLOTS_OFFSET);
+                this.capacity = header.getLong(CAPACITY_OFFSET);
+                this.size = header.getLong(SIZE_OFFSET);
+                if (this.capacity != capacity) {
+                    log.warn("Key store {} was created for {} keys, configured capacity {} is ignored", path, this.capacity, capacity);
+                }
+            } else {
+                slots = Long.highestOneBit(capacity * 4 / 3 + 1) << 1;
+                this.capacity = capacity;
+            }
+
+            this.mask = slots - 1;
+            this.segments = new MappedByteBuffer[(int) ((slots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS)];
+            for (int i = 0; i < segments.length; i++) {
+                long segmentSlots = Math.min(slots - (long) i * SEGMENT_SLOTS, SEGMENT_SLOTS);
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        HEADER_SIZE + (long) i * SEGMENT_SLOTS * SLOT_SIZE, segmentSlots * SLOT_SIZE);
+            }
+
+            if (!exists) {
+                header.putLong(SLOTS_OFFSET, slots);
+                header.putLong(CAPACITY_OFFSET, this.capacity);
+                header.putLong(SIZE_OFFSET, 0L);
+                header.putInt(VERSION_OFFSET, VERSION);
+                header.putLong(MAGIC_OFFSET, MAGIC);
+                header.force();
+            }
+            this.offsets = exists ? readOffsets() : new HashMap<>();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open key store " + path, e);
+        }
+
+        log.info("Key store {} opened with {} keys, last checkpoint at {}, offsets {}",
+                path, size, header.getLong(CHECKPOINT_OFFSET), offsets);
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(long high, long low, long ttlSec) {
+        long now = clock.getAsLong();
+        long expiresAt = now + Math.max(ttlSec, 1L) * 1000L;
+
+        long slot = probe(high, low, now);
+        if (expiresAt(slot) != 0) {
+            return false;
+        }
+
+        if (size >= capacity) {
+            // в просмотренных слотах может не оказаться ни одного ключа, тогда просмотр продолжается дальше:
+            // размер не превышает capacity, иначе таблица заполнится и поиск выродится в долгий перебор
+            while (size >= capacity) {
+                reclaim(now);
+            }
+            slot = probe(high, low, now);
+        }
+
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.putLong(offset, high);
+        segment.putLong(offset + 8, low);
+        segment.putLong(offset + 16, expiresAt);
+        setSize(size + 1);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(long high, long low) {
+        return expiresAt(probe(high, low, clock.getAsLong())) != 0;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized void checkpoint(Map<TopicPartition, Long> committedOffsets) {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        // смещения партиций, которых нет в пачке, не меняются
+        offsets.putAll(committedOffsets);
+        try {
+            writeOffsets();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write key store offsets " + offsetsPath, e);
+        }
+        header.putLong(CHECKPOINT_OFFSET, clock.getAsLong());
+        header.force();
+    }
+
+    @Override
+    public synchronized Map<TopicPartition, Long> getCheckpointOffsets() {
+        return Map.copyOf(offsets);
+    }
+
+    @Override
+    public synchronized void close() {
+        checkpoint(Map.of());
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Failed to close key store: {}", e.getMessage());
+        }
+    }
+
+    // строки "topic<TAB>partition<TAB>offset"; файла нет, если хранилище ещё не сохранялось
+    private Map<TopicPartition, Long> readOffsets() throws IOException {
+        Map<TopicPartition, Long> result = new HashMap<>();
+        if (!Files.exists(offsetsPath)) {
+            return result;
+        }
+        for (String line : Files.readAllLines(offsetsPath, StandardCharsets.UTF_8)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            result.put(new TopicPartition(fields[0], Integer.parseInt(fields[1])), Long.parseLong(fields[2]));
+        }
+        return result;
+    }
+
+    // запись во временный файл и переименование: после сбоя на диске остаются старые или новые смещения целиком
+    private void writeOffsets() throws IOException {
+        List<String> lines = new ArrayList<>(offsets.size());
+        offsets.forEach((partition, offset) -> lines.add(partition.topic() + "\t" + partition.partition() + "\t" + offset));
+        Path temp = offsetsPath.resolveSibling(offsetsPath.getFileName() + ".tmp");
+        Files.write(temp, lines, StandardCharsets.UTF_8);
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(temp, offsetsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // слот с действующим ключом или пустой слот, куда его записать; истёкшие слоты цепочки по пути освобождаются
+    private long probe(long high, long low, long now) {
+        long slot = index(high, low);
+        while (true) {
+            long expiresAt = expiresAt(slot);
+            if (expiresAt == 0) {
+                return slot;
+            }
+            if (expiresAt <= now) {
+                remove(slot);
+                expirations++;
+                continue;
+            }
+            if (high(slot) == high && low(slot) == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // освобождает истёкшие слоты в следующих SWEEP_SLOTS слотах, а если их нет - самый ранний по истечению;
+    // если все слоты пусты, ничего не освобождает
+    private void reclaim(long now) {
+        long earliestSlot = -1;
+        long earliestExpiresAt = Long.MAX_VALUE;
+        boolean reclaimed = false;
+
+        long end = sweepCursor + SWEEP_SLOTS;
+        while (sweepCursor < end) {
+            long slot = sweepCursor & mask;
+            long expiresAt = expiresAt(slot);
+            if (expiresAt != 0 && expiresAt <= now) {
+                // на место удалённого мог сдвинуться следующий слот, поэтому этот слот проверяется ещё раз
+                remove(slot);
+                expirations++;
+                reclaimed = true;
+                continue;
+            }
+            if (expiresAt != 0 && expiresAt < earliestExpiresAt) {
+                earliestSlot = slot;
+                earliestExpiresAt = expiresAt;
+            }
+            sweepCursor++;
+        }
+
+        if (!reclaimed && earliestSlot >= 0) {
+            remove(earliestSlot);
+            evictions++;
+        }
+    }
+
+    // удаление со сдвигом назад: слоты цепочки, которые можно поставить ближе к своему индексу, переносятся в освободившийся
+    private void remove(long slot) {
+        long hole = slot;
+        long next = (hole + 1) & mask;
+        while (expiresAt(next) != 0) {
+            long home = index(high(next), low(next));
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        segment(hole).putLong(offset(hole) + 16, 0L);
+        setSize(size - 1);
+    }
+
+    private void setSize(long size) {
+        this.size = size;
+        header.putLong(SIZE_OFFSET, size);
+    }
+
+    private void copySlot(long from, long to) {
+        ByteBuffer source = segment(from);
+        ByteBuffer target = segment(to);
+        int fromOffset = offset(from);
+        int toOffset = offset(to);
+        target.putLong(toOffset, source.getLong(fromOffset));
+        target.putLong(toOffset + 8, source.getLong(fromOffset + 8));
+        target.putLong(toOffset + 16, source.getLong(fromOffset + 16));
+    }
+
+    private long index(long high, long low) {
+        long hash = high ^ Long.rotateLeft(low, 32);
+        hash ^= hash >>> 29;
+        return hash & mask;
+    }
+
+    private long high(long slot) {
+        return segment(slot).getLong(offset(slot));
+    }
+
+    private long low(long slot) {
+        return segment(slot).getLong(offset(slot) + 8);
+    }
+
+    private long expiresAt(long slot) {
+        return segment(slot).getLong(offset(slot) + 16);
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.mai.lessons.rpks.dedup;
+
+import lombok.EqualsAndHashCode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Локальный кэш ключей, которые этот экземпляр сервиса уже записал в хранилище.
+ * Повтор такого ключа - дубль, и хранилище для него не запрашивается.
+ * <p>
+ * Запись живёт не дольше времени жизни ключа из правил: срок отсчитывается от момента до отправки записи в хранилище,
+ * поэтому запись истекает не позже самого ключа. При переполнении вытесняются самые старые записи,
+ * поэтому кэш никогда не даёт ложного дубля: в худшем случае ключ будет проверен в хранилище.
+ */
+public final class NearCache {
+    private final int maxSize;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Entry, Long> expiresAt;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public NearCache(int maxSize) {
+        this(maxSize, System::currentTimeMillis);
+    }
+
+    public NearCache(int maxSize, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.expiresAt = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Entry, Long> eldest) {
+                if (size() > NearCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized boolean contains(DedupKey dedupKey) {
+        Entry entry = new Entry(dedupKey);
+        Long expiry = expiresAt.get(entry);
+        if (expiry != null && expiry > clock.getAsLong()) {
+            hits++;
+            return true;
+        }
+
+        if (expiry != null) {
+            expiresAt.remove(entry);
+            expirations++;
+        }
+        misses++;
+        return false;
+    }
+
+    // время по часам кэша, которое берётся перед отправкой записи в хранилище и передаётся в put
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    // запоминает ключ, записанный в хранилище с временем жизни ключа; claimedAt - now() до отправки записи
+    public synchronized void put(DedupKey dedupKey, long claimedAt) {
+        Entry entry = new Entry(dedupKey);
+        expiresAt.remove(entry);
+        expiresAt.put(entry, claimedAt + dedupKey.getTtlSec() * 1000L);
+        removeExpired(clock.getAsLong());
+    }
+
+    public synchronized int size() {
+        return expiresAt.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    // записи с разным временем жизни идут вперемешку, поэтому с головы снимаются только уже истёкшие
+    private void removeExpired(long now) {
+        Iterator<Long> iterator = expiresAt.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() > now) {
+                return;
+            }
+            iterator.remove();
+            expirations++;
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Entry {
+        private final long deduplicationId;
+        private final long digestHigh;
+        private final long digestLow;
+
+        private Entry(DedupKey dedupKey) {
+            this.deduplicationId = dedupKey.getDeduplicationId();
+            this.digestHigh = dedupKey.getDigestHigh();
+            this.digestLow = dedupKey.getDigestLow();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ru.mai.lessons.rpks.dedup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+
+/**
+ * Хранилище ключей дедубликации вне кучи: хэш-таблица с открытой адресацией (линейное пробирование)
+ * в direct ByteBuffer, где ключ - 128-битный хэш, а значение - момент истечения.
+ * <p>
+ * Слот занимает 24 байта: старшая и младшая половины хэша и время истечения в миллисекундах (0 - слот пуст).
+ * Удаление сдвигает следующие слоты цепочки назад, поэтому надгробий нет и поиск не деградирует со временем.
+ * <p>
+ * Истёкшие ключи удаляются иерархическим колесом таймеров ({@value #LEVELS} уровня по {@value #WHEEL_SIZE} корзин,
+ * шаг - 1 секунда, горизонт - больше 190 дней): корзины хранят хэши и время истечения в массивах long,
+ * поэтому на ключ не создаётся ни объектов, ни таймеров. Просроченный, но ещё не удалённый ключ считается отсутствующим.
+ * <p>
+ * При заполнении таблицы до capacity сначала удаляются истёкшие ключи, а если места всё равно нет -
+ * ключи, которые истекают раньше всех. Сообщение с вытесненным ключом повторно пройдёт дедубликацию.
+ */
+public final class OffHeapKeyStore implements KeyStore {
+    static final int LEVELS = 4;
+    static final int WHEEL_SIZE = 64;
+
+    private static final int WHEEL_BITS = 6;
+    private static final long TICK_MS = 1000L;
+    private static final int SLOT_SIZE = 24;
+    private static final int SEGMENT_BITS = 22;
+    private static final int SEGMENT_SLOTS = 1 << SEGMENT_BITS;
+
+    private final LongSupplier clock;
+    private final long capacity;
+    private final long mask;
+    private final ByteBuffer[] segments;
+    private final Bucket[][] wheel = new Bucket[LEVELS][WHEEL_SIZE];
+
+    private long size;
+    private long currentTick;
+    private long expirations;
+    private long evictions;
+
+    public OffHeapKeyStore(long capacity) {
+        this(capacity, System::currentTimeMillis);
+    }
+
+    public OffHeapKeyStore(long capacity, LongSupplier clock) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.clock = clock;
+        this.capacity = capacity;
+        long slots = Long.highestOneBit(capacity * 4 / 3 + 1) << 1;
+        this.mask = slots - 1;
+        this.segments = new ByteBuffer[(int) ((slots + SEGMENT_SLOTS - 1) / SEGMENT_SLOTS)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect((int) Math.min(slots, SEGMENT_SLOTS) * SLOT_SIZE);
+        }
+        for (Bucket[] level : wheel) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.currentTick = clock.getAsLong() / TICK_MS;
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(long high, long low, long ttlSec) {
+        long now = clock.getAsLong();
+        advance(now);
+
+        long slot = find(high, low);
+        if (slot >= 0 && expiresAt(slot) > now) {
+            return false;
+        }
+
+        long expiresAt = now + Math.max(ttlSec, 1L) * 1000L;
+        if (slot >= 0) {
+            setExpiresAt(slot, expiresAt);
+        } else {
+            if (size >= capacity) {
+                evictEarliest(now);
+            }
+            insert(high, low, expiresAt);
+        }
+        schedule(high, low, expiresAt);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(long high, long low) {
+        long now = clock.getAsLong();
+        advance(now);
+        long slot = find(high, low);
+        return slot >= 0 && expiresAt(slot) > now;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    @Override
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // продвигает колесо до текущего момента и удаляет истёкшие ключи
+    public synchronized void expire() {
+        advance(clock.getAsLong());
+    }
+
+    private void advance(long now) {
+        long targetTick = now / TICK_MS;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) == 0) {
+                    cascade(wheel[level][(int) ((currentTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1))]);
+                }
+            }
+
+            Bucket bucket = wheel[0][(int) (currentTick & (WHEEL_SIZE - 1))];
+            for (int i = 0; i < bucket.size; i += 3) {
+                if (removeIf(bucket.entries[i], bucket.entries[i + 1], expiry -> expiry <= now)) {
+                    expirations++;
+                }
+            }
+            bucket.clear();
+        }
+    }
+
+    private void cascade(Bucket bucket) {
+        for (int i = 0; i < bucket.size; i += 3) {
+            schedule(bucket.entries[i], bucket.entries[i + 1], bucket.entries[i + 2]);
+        }
+        bucket.clear();
+    }
+
+    private void schedule(long high, long low, long expiresAt) {
+        long expiryTick = (expiresAt + TICK_MS - 1) / TICK_MS;
+        long delta = expiryTick - currentTick;
+        if (delta <= 0) {
+            wheel[0][(int) ((currentTick + 1) & (WHEEL_SIZE - 1))].add(high, low, expiresAt);
+            return;
+        }
+
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (WHEEL_BITS * (level + 1))) {
+                wheel[level][(int) ((expiryTick >>> (WHEEL_BITS * level)) & (WHEEL_SIZE - 1))].add(high, low, expiresAt);
+                return;
+            }
+        }
+
+        // дальше горизонта колеса: ключ переносится в последнюю корзину верхнего уровня и будет перераспределён позже
+        int top = LEVELS - 1;
+        long lastBucket = (currentTick >>> (WHEEL_BITS * top)) + WHEEL_SIZE - 1;
+        wheel[top][(int) (lastBucket & (WHEEL_SIZE - 1))].add(high, low, expiresAt);
+    }
+
+    // вытесняет ключи из ближайшей к истечению непустой корзины
+    private void evictEarliest(long now) {
+        for (int level = 0; level < LEVELS && size >= capacity; level++) {
+            long levelTick = currentTick >>> (WHEEL_BITS * level);
+            for (int i = 1; i <= WHEEL_SIZE && size >= capacity; i++) {
+                Bucket bucket = wheel[level][(int) ((levelTick + i) & (WHEEL_SIZE - 1))];
+                for (int j = 0; j < bucket.size; j += 3) {
+                    long scheduled = bucket.entries[j + 2];
+                    if (removeIf(bucket.entries[j], bucket.entries[j + 1], expiry -> expiry == scheduled || expiry <= now)) {
+                        evictions++;
+                    }
+                }
+                bucket.clear();
+            }
+        }
+    }
+
+    private boolean removeIf(long high, long low, LongPredicate expiryCondition) {
+        long slot = find(high, low);
+        if (slot < 0 || !expiryCondition.test(expiresAt(slot))) {
+            return false;
+        }
+
+        remove(slot);
+        return true;
+    }
+
+    private long find(long high, long low) {
+        long slot = index(high, low);
+        while (true) {
+            long expiresAt = expiresAt(slot);
+            if (expiresAt == 0) {
+                return -1;
+            }
+            if (high(slot) == high && low(slot) == low) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void insert(long high, long low, long expiresAt) {
+        long slot = index(high, low);
+        while (expiresAt(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.putLong(offset, high);
+        segment.putLong(offset + 8, low);
+        segment.putLong(offset + 16, expiresAt);
+        size++;
+    }
+
+    // удаление со сдвигом назад: слоты цепочки, которые можно поставить ближе к своему индексу, переносятся в освободившийся
+    private void remove(long slot) {
+        long hole = slot;
+        long next = (hole + 1) & mask;
+        while (expiresAt(next) != 0) {
+            long home = index(high(next), low(next));
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                copySlot(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        setExpiresAt(hole, 0L);
+        size--;
+    }
+
+    private void copySlot(long from, long to) {
+        ByteBuffer source = segment(from);
+        ByteBuffer target = segment(to);
+        int fromOffset = offset(from);
+        int toOffset = offset(to);
+        target.putLong(toOffset, source.getLong(fromOffset));
+        target.putLong(toOffset + 8, source.getLong(fromOffset + 8));
+        target.putLong(toOffset + 16, source.getLong(fromOffset + 16));
+    }
+
+    private long index(long high, long low) {
+        long hash = high ^ Long.rotateLeft(low, 32);
+        hash ^= hash >>> 29;
+        return hash & mask;
+    }
+
+    private long high(long slot) {
+        return segment(slot).getLong(offset(slot));
+    }
+
+    private long low(long slot) {
+        return segment(slot).getLong(offset(slot) + 8);
+    }
+
+    private long expiresAt(long slot) {
+        return segment(slot).getLong(offset(slot) + 16);
+    }
+
+    private void setExpiresAt(long slot, long expiresAt) {
+        segment(slot).putLong(offset(slot) + 16, expiresAt);
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> SEGMENT_BITS)];
+    }
+
+    private static int offset(long slot) {
+        return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    // корзина колеса: тройки (старшая половина хэша, младшая половина, время истечения)
+    private static final class Bucket {
+        private long[] entries = new long[0];
+        private int size;
+
+        private void add(long high, long low, long expiresAt) {
+            if (size + 3 > entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(24, entries.length * 2));
+            }
+            entries[size++] = high;
+            entries[size++] = low;
+            entries[size++] = expiresAt;
+        }
+
+        private void clear() {
+            size = 0;
+            if (entries.length > 1 << 16) {
+                entries = new long[0];
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
 import ru.mai.lessons.rpks.DbReader;
 import ru.mai.lessons.rpks.config.ConnectToDb;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
 import ru.mai.lessons.rpks.model.Rule;
 
 import java.util.Arrays;
@@ -29,6 +30,9 @@ public class DbReaderImpl implements DbReader {
     @Getter
     private Rule[] rules;
 
+    @Getter
+    private volatile KeyPlan keyPlan = KeyPlan.empty(); // составляется заново при каждом обновлении правил
+
     public DbReaderImpl(Config config) {
         log.info("Start connecting to database");
         ConnectToDb connectToDB = new ConnectToDb(config);
@@ -49,6 +53,7 @@ public class DbReaderImpl implements DbReader {
             }
 
             rules = ruleList.toArray(new Rule[0]);
+            keyPlan = KeyPlan.compile(rules);
             log.info("Successfully read rules from database");
             return rules;
 
@@ -2,15 +2,25 @@ package ru.mai.lessons.rpks.impl;
 
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import ru.mai.lessons.rpks.KafkaReader;
 import ru.mai.lessons.rpks.KafkaWriter;
+import ru.mai.lessons.rpks.RedisClient;
 import ru.mai.lessons.rpks.RuleProcessor;
 import ru.mai.lessons.rpks.model.Message;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 @Slf4j
@@ -19,13 +29,15 @@ public class KafkaReaderImpl implements KafkaReader {
     private final KafkaConsumer<String, String> kafkaConsumer;
     private final KafkaWriter kafkaWriter;
     private final RuleProcessor ruleProcessor;
+    private final RedisClient redisClient;
 
-    public KafkaReaderImpl(Config config) {
+    public KafkaReaderImpl(Config config, RedisClient redisClient) {
         this.config = config;
         this.kafkaWriter = new KafkaWriterImpl(config);
-        this.ruleProcessor = new RuleProcessorImpl(config);
+        this.ruleProcessor = new RuleProcessorImpl(redisClient);
+        this.redisClient = redisClient;
         this.kafkaConsumer = new KafkaConsumer<>(getKafkaProperties());
-        this.kafkaConsumer.subscribe(Collections.singletonList("test_topic_in"));
+        this.kafkaConsumer.subscribe(Collections.singletonList("test_topic_in"), new CheckpointRebalanceListener());
         log.info("KafkaReader started");
     }
 
@@ -37,6 +49,7 @@ public class KafkaReaderImpl implements KafkaReader {
         properties.put("key.deserializer", StringDeserializer.class.getName());
         properties.put("value.deserializer", StringDeserializer.class.getName());
         properties.put("auto.offset.reset", "earliest");
+        properties.put("enable.auto.commit", "false");
 
         return properties;
     }
@@ -50,16 +63,30 @@ public class KafkaReaderImpl implements KafkaReader {
             dbReader.startPeriodicRuleUpdate().await();
             while (isTrue) {
                 var records = kafkaConsumer.poll(Duration.ofMillis(100));
+                if (records.isEmpty()) {
+                    continue;
+                }
+
+                List<Message> messages = new ArrayList<>(records.count());
+                Map<TopicPartition, Long> offsets = new HashMap<>();
                 for (var r : records) {
-                    String message = r.value();
-                    var rules = dbReader.getRules();
-                    log.info("Received message: {}", message);
+                    log.info("Received message: {}", r.value());
+                    messages.add(Message.builder().value(r.value()).build());
+                    offsets.put(new TopicPartition(r.topic(), r.partition()), r.offset() + 1);
+                }
 
-                    var filterMessages = ruleProcessor.processing(Message.builder().value(message).build(), rules);
-                    if (filterMessages.isDeduplicationState()) {
-                        kafkaWriter.processing(filterMessages);
+                for (Message message : ruleProcessor.processing(messages, dbReader.getKeyPlan())) {
+                    if (message.isDeduplicationState()) {
+                        kafkaWriter.processing(message);
                     }
                 }
+
+                // смещения фиксируются только после отправки сообщений и сохранения ключей пачки вместе с этими смещениями
+                kafkaWriter.flush();
+                redisClient.checkpoint(offsets);
+                Map<TopicPartition, OffsetAndMetadata> commit = new HashMap<>();
+                offsets.forEach((partition, offset) -> commit.put(partition, new OffsetAndMetadata(offset)));
+                kafkaConsumer.commitSync(commit);
             }
         } catch (Exception e) {
             dbReader.stopPeriodicRuleUpdate();
@@ -67,4 +94,37 @@ public class KafkaReaderImpl implements KafkaReader {
             Thread.currentThread().interrupt();
         }
     }
+
+    // сверяет зафиксированные смещения назначенных партиций со смещениями последнего сохранения хранилища ключей
+    private final class CheckpointRebalanceListener implements ConsumerRebalanceListener {
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            Map<TopicPartition, Long> checkpointOffsets = redisClient.getCheckpointOffsets();
+            if (checkpointOffsets.isEmpty() || partitions.isEmpty()) {
+                return;
+            }
+
+            Map<TopicPartition, OffsetAndMetadata> committed = kafkaConsumer.committed(new HashSet<>(partitions));
+            for (TopicPartition partition : partitions) {
+                Long checkpoint = checkpointOffsets.get(partition);
+                OffsetAndMetadata commit = committed.get(partition);
+                if (checkpoint == null || commit == null || commit.offset() == checkpoint) {
+                    continue;
+                }
+                if (commit.offset() < checkpoint) {
+                    // сбой между сохранением и фиксацией: сообщения до checkpoint уже отправлены, их ключи записаны
+                    log.info("Partition {} committed at {}, key store saved at {}: skipping already processed messages",
+                            partition, commit.offset(), checkpoint);
+                    kafkaConsumer.seek(partition, checkpoint);
+                } else {
+                    log.warn("Partition {} committed at {}, key store saved at {}: keys of messages in between are missing, "
+                            + "their duplicates will not be detected", partition, commit.offset(), checkpoint);
+                }
+            }
+        }
+    }
 }
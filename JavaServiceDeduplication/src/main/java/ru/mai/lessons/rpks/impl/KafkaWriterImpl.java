@@ -39,4 +39,9 @@ public class KafkaWriterImpl implements KafkaWriter {
 
         log.info("Message sent");
     }
+
+    @Override
+    public void flush() {
+        producer.flush();
+    }
 }
@@ -0,0 +1,106 @@
+package ru.mai.lessons.rpks.impl;
+
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+import ru.mai.lessons.rpks.RedisClient;
+import ru.mai.lessons.rpks.dedup.DedupKey;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
+import ru.mai.lessons.rpks.dedup.KeyStore;
+import ru.mai.lessons.rpks.dedup.MappedKeyStore;
+import ru.mai.lessons.rpks.dedup.OffHeapKeyStore;
+import ru.mai.lessons.rpks.metrics.OffHeapStoreMetrics;
+import ru.mai.lessons.rpks.model.Message;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище ключей внутри процесса вместо Redis: без сетевых запросов, но ключи видны только этому экземпляру сервиса.
+ * При {@code application.store = "offheap"} ключи лежат в памяти вне кучи и теряются при перезапуске,
+ * при {@code "mmap"} - в файле, отображённом в память, и переживают перезапуск.
+ * <p>
+ * Ключ - 128-битный хэш значений полей, смешанный с deduplication_id, так что разные группы правил не пересекаются.
+ * Сообщение - дубль, если хотя бы один из ключей его групп уже записан; тогда ни один из его ключей не записывается.
+ */
+@Slf4j
+public class OffHeapStoreClientImpl implements RedisClient {
+    private static final long NAMESPACE_MIX = 0x9E3779B97F4A7C15L;
+
+    private final KeyStore store;
+
+    public static OffHeapStoreClientImpl offHeap(Config config) {
+        return new OffHeapStoreClientImpl(new OffHeapKeyStore(config.getLong("offHeapStore.capacity")));
+    }
+
+    public static OffHeapStoreClientImpl mapped(Config config) {
+        return new OffHeapStoreClientImpl(new MappedKeyStore(
+                Path.of(config.getString("mappedStore.path")), config.getLong("mappedStore.capacity")));
+    }
+
+    OffHeapStoreClientImpl(KeyStore store) {
+        this.store = store;
+        OffHeapStoreMetrics.register(store);
+        log.info("Local key store ready for {} keys", store.getCapacity());
+    }
+
+    @Override
+    public boolean checkDuplicate(Message message, KeyPlan keyPlan) {
+        try {
+            return claim(keyPlan.extract(message.getValue()));
+        } catch (Exception e) {
+            log.warn("Invalid: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public boolean[] checkDuplicates(List<Message> messages, KeyPlan keyPlan) {
+        boolean[] unique = new boolean[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                unique[i] = claim(keyPlan.extract(messages.get(i).getValue()));
+            } catch (Exception e) {
+                log.warn("Invalid: {}", e.getMessage());
+            }
+        }
+        return unique;
+    }
+
+    private synchronized boolean claim(DedupKey[] dedupKeys) {
+        for (DedupKey dedupKey : dedupKeys) {
+            if (dedupKey.isStored() && store.contains(high(dedupKey), dedupKey.getDigestLow())) {
+                return false;
+            }
+        }
+
+        for (DedupKey dedupKey : dedupKeys) {
+            if (dedupKey.isStored()) {
+                store.putIfAbsent(high(dedupKey), dedupKey.getDigestLow(), dedupKey.getTtlSec());
+            }
+        }
+        return true;
+    }
+
+    private static long high(DedupKey dedupKey) {
+        return dedupKey.getDigestHigh() ^ dedupKey.getDeduplicationId() * NAMESPACE_MIX;
+    }
+
+    @Override
+    public void checkpoint(Map<TopicPartition, Long> offsets) {
+        store.checkpoint(offsets);
+    }
+
+    @Override
+    public Map<TopicPartition, Long> getCheckpointOffsets() {
+        return store.getCheckpointOffsets();
+    }
+
+    @Override
+    public void close() {
+        log.info("Closing local key store with {} keys", store.size());
+        OffHeapStoreMetrics.unregister();
+        store.close();
+    }
+}
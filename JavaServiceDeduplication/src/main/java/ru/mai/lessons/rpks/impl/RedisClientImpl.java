@@ -1,60 +1,295 @@
 package ru.mai.lessons.rpks.impl;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
-import org.jooq.tools.StringUtils;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import redis.clients.jedis.params.SetParams;
 import ru.mai.lessons.rpks.RedisClient;
+import ru.mai.lessons.rpks.dedup.DedupKey;
+import ru.mai.lessons.rpks.dedup.HashRing;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
+import ru.mai.lessons.rpks.dedup.NearCache;
+import ru.mai.lessons.rpks.metrics.NearCacheMetrics;
+import ru.mai.lessons.rpks.metrics.RedisPoolMetrics;
 import ru.mai.lessons.rpks.model.Message;
-import ru.mai.lessons.rpks.model.Rule;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Клиент Redis с одним пулом соединений на каждый узел: создаётся при старте и закрывается при остановке.
+ * Размер пула, таймауты и вытеснение простаивающих соединений задаются в блоке redis конфигурации.
+ * <p>
+ * Узлы перечисляются в redis.nodes, без них используется один узел redis.host:redis.port. Ключ направляется на узел
+ * согласованным хэшированием ({@link HashRing}) по хэшу значений полей, так что Redis Cluster не нужен.
+ * <p>
+ * При redis.hashedKeys = true ключ - это deduplication_id и 128-битный хэш значений полей ({@link DedupKey#hashedKey()}),
+ * а значение - один байт, так что память Redis не зависит от размера сообщений и значений полей.
+ * По умолчанию (false) ключи и значения записываются как раньше: значения полей и всё сообщение.
+ * Уже записанные ключи в другом режиме не находятся, поэтому переключать режим нужно, когда старые ключи истекли:
+ * не раньше, чем через наибольший time_to_live_sec правил после остановки экземпляров со старым режимом.
+ * <p>
+ * Ключи, записанные этим экземпляром, запоминаются в {@link NearCache}: повтор такого ключа отклоняется без запроса к Redis.
+ * <p>
+ * У каждой группы правил (deduplication_id) свой ключ. Сообщение - дубль, если оно дубль хотя бы по одной группе,
+ * и тогда ни один из его ключей не записывается: все ключи сообщения на узле проверяются и записываются одним
+ * скриптом в том же конвейере, без отдельных запросов на каждую группу. Если ключи сообщения лежат на разных узлах,
+ * атомарна только часть на каждом узле: отклонённое на одном узле сообщение может оставить свои ключи на другом.
+ */
 @Slf4j
 public class RedisClientImpl implements RedisClient {
-    private final JedisPooled jedis;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final byte[] MARKER = {1};
+
+    // сообщение - дубль, если есть хотя бы один из его ключей; тогда не записывается ни один
+    private static final byte[] CLAIM_SCRIPT = (
+            "for i = 1, #KEYS do\n"
+                    + "  if redis.call('EXISTS', KEYS[i]) == 1 then return 0 end\n"
+                    + "end\n"
+                    + "for i = 1, #KEYS do\n"
+                    + "  redis.call('SET', KEYS[i], ARGV[2 * i - 1], 'EX', ARGV[2 * i])\n"
+                    + "end\n"
+                    + "return 1\n").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLAIM_SCRIPT_SHA = sha1Hex(CLAIM_SCRIPT);
+
+    private final List<String> nodeNames = new ArrayList<>();
+    private final List<JedisPooled> nodes = new ArrayList<>();
+    private final HashRing ring;
+    private final boolean hashedKeys;
+    private final NearCache nearCache;
 
     public RedisClientImpl(Config config) {
-        this.jedis = new JedisPooled(
-                config.getString("redis.host"), config.getInt("redis.port")
-        );
+        Config redisConfig = config.getConfig("redis");
+        List<String> addresses = redisConfig.getStringList("nodes");
+        if (addresses.isEmpty()) {
+            addresses = List.of(redisConfig.getString("host") + ":" + redisConfig.getInt("port"));
+        }
+
+        DefaultJedisClientConfig clientConfig = DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis((int) redisConfig.getDuration("connectionTimeout").toMillis())
+                .socketTimeoutMillis((int) redisConfig.getDuration("socketTimeout").toMillis())
+                .build();
+        for (String address : addresses) {
+            JedisPooled node = new JedisPooled(poolConfig(redisConfig.getConfig("pool")), HostAndPort.from(address), clientConfig);
+            nodeNames.add(address);
+            nodes.add(node);
+            RedisPoolMetrics.register(address, node.getPool());
+        }
+        this.ring = new HashRing(nodeNames, redisConfig.getInt("virtualNodes"));
+        this.hashedKeys = redisConfig.getBoolean("hashedKeys");
+        int nearCacheSize = redisConfig.getInt("nearCache.maxSize");
+        this.nearCache = nearCacheSize > 0 ? new NearCache(nearCacheSize) : null;
+        if (nearCache != null) {
+            NearCacheMetrics.register(nearCache);
+        }
+        log.info("Redis client connected to {}", nodeNames);
+    }
+
+    private static ConnectionPoolConfig poolConfig(Config config) {
+        ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+        poolConfig.setMaxTotal(config.getInt("maxTotal"));
+        poolConfig.setMaxIdle(config.getInt("maxIdle"));
+        poolConfig.setMinIdle(config.getInt("minIdle"));
+        poolConfig.setMaxWait(config.getDuration("maxWait"));
+        poolConfig.setTestWhileIdle(true);
+        poolConfig.setTimeBetweenEvictionRuns(config.getDuration("evictionInterval"));
+        poolConfig.setMinEvictableIdleTime(config.getDuration("minEvictableIdleTime"));
+        poolConfig.setJmxNamePrefix("redis-deduplication");
+        return poolConfig;
     }
 
     @Override
-    public boolean checkDuplicate(Message message, Rule[] rules) {
-        try {
-            JsonNode jsonNode = mapper.readTree(message.getValue());
-            StringBuilder keyBuilder = new StringBuilder();
-
-            long ttl = 0L;
-            for (Rule rule : rules) {
-                if (Boolean.TRUE.equals(rule.getIsActive())) {
-                    JsonNode fieldNode = jsonNode.get(rule.getFieldName());
-                    if (fieldNode != null) {
-                        keyBuilder.append(fieldNode.asText()).append(":");
-                        ttl = Math.max(ttl, rule.getTimeToLiveSec());
+    public boolean checkDuplicate(Message message, KeyPlan keyPlan) {
+        return checkDuplicates(List.of(message), keyPlan)[0];
+    }
+
+    @Override
+    public boolean[] checkDuplicates(List<Message> messages, KeyPlan keyPlan) {
+        boolean[] unique = new boolean[messages.size()];
+        List<List<Claim>> claimsByNode = new ArrayList<>(nodes.size());
+        for (int n = 0; n < nodes.size(); n++) {
+            claimsByNode.add(new ArrayList<>());
+        }
+        Set<String> batchKeys = new HashSet<>();
+        int claimCount = 0;
+
+        for (int i = 0; i < messages.size(); i++) {
+            List<DedupKey> dedupKeys = new ArrayList<>(keyPlan.groupCount());
+            try {
+                for (DedupKey dedupKey : keyPlan.extract(messages.get(i).getValue())) {
+                    if (dedupKey.isStored()) {
+                        dedupKeys.add(dedupKey);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Invalid: {}", e.getMessage());
+                continue;
+            }
+
+            // сообщение с теми же ключами, что и у предыдущего в пачке, - дубль независимо от ответа Redis
+            if (dedupKeys.isEmpty()) {
+                unique[i] = true;
+                continue;
+            }
+            if (!batchKeys.add(identity(dedupKeys)) || nearCache != null && dedupKeys.stream().anyMatch(nearCache::contains)) {
+                continue;
+            }
+
+            unique[i] = true;
+            for (int n = 0; n < nodes.size(); n++) {
+                List<DedupKey> nodeKeys = new ArrayList<>(dedupKeys.size());
+                for (DedupKey dedupKey : dedupKeys) {
+                    if (nodeIndex(dedupKey) == n) {
+                        nodeKeys.add(dedupKey);
                     }
                 }
+                if (!nodeKeys.isEmpty()) {
+                    claimsByNode.get(n).add(new Claim(i, nodeKeys));
+                    claimCount++;
+                }
+            }
+        }
+
+        for (int n = 0; n < nodes.size(); n++) {
+            if (!claimsByNode.get(n).isEmpty()) {
+                claimOnNode(n, claimsByNode.get(n), messages, unique);
             }
+        }
+
+        log.info("Checked batch of {} messages, {} claims sent to redis", messages.size(), claimCount);
+        return unique;
+    }
 
-            String key = keyBuilder.toString();
-            if (StringUtils.isBlank(key)) {
-                log.info("True");
-                return true;
+    // все записи пачки для узла уходят одним конвейером, ответы приходят в том же порядке
+    private void claimOnNode(int node, List<Claim> claims, List<Message> messages, boolean[] unique) {
+        try (Connection connection = nodes.get(node).getPool().getResource()) {
+            // срок записи в локальном кэше отсчитывается до отправки, чтобы она не пережила ключ в Redis
+            long claimedAt = nearCache == null ? 0L : nearCache.now();
+            Pipeline pipeline = new Pipeline(connection);
+            List<Response<?>> responses = new ArrayList<>(claims.size());
+            for (Claim claim : claims) {
+                responses.add(claim(pipeline, claim, messages.get(claim.message), true));
             }
+            pipeline.sync();
 
-            if (jedis.exists(key)) {
-                log.info("False");
-                return false;
-            } else {
-                jedis.set(key, message.getValue());
-                jedis.expire(key, ttl);
+            // после перезапуска Redis скрипта нет в кэше: такие записи повторяются через EVAL, который его загружает
+            List<Claim> retries = new ArrayList<>();
+            for (int j = 0; j < claims.size(); j++) {
+                try {
+                    apply(claims.get(j), responses.get(j).get(), unique, claimedAt);
+                } catch (JedisNoScriptException e) {
+                    retries.add(claims.get(j));
+                }
+            }
+
+            if (!retries.isEmpty()) {
+                responses.clear();
+                for (Claim claim : retries) {
+                    responses.add(claim(pipeline, claim, messages.get(claim.message), false));
+                }
+                pipeline.sync();
+                for (int j = 0; j < retries.size(); j++) {
+                    apply(retries.get(j), responses.get(j).get(), unique, claimedAt);
+                }
             }
-            return true;
         } catch (Exception e) {
-            log.warn("Invalid: {}", e.getMessage());
-            return false;
+            log.error("Error checking batch of {} messages in redis {}: {}", claims.size(), nodeNames.get(node), e.getMessage(), e);
+            for (Claim claim : claims) {
+                unique[claim.message] = false;
+            }
+        }
+    }
+
+    // SET NX отвечает OK или null, скрипт - 1 или 0
+    private void apply(Claim claim, Object reply, boolean[] unique, long claimedAt) {
+        boolean claimed = reply instanceof Long ? (Long) reply == 1L : reply != null;
+        if (!claimed) {
+            unique[claim.message] = false;
+        } else if (nearCache != null) {
+            claim.keys.forEach(dedupKey -> nearCache.put(dedupKey, claimedAt));
+        }
+    }
+
+    private int nodeIndex(DedupKey dedupKey) {
+        return nodes.size() == 1 ? 0 : ring.nodeFor(dedupKey.getDigestHigh());
+    }
+
+    private static String identity(List<DedupKey> dedupKeys) {
+        StringBuilder identity = new StringBuilder();
+        for (DedupKey dedupKey : dedupKeys) {
+            identity.append(dedupKey.getDeduplicationId()).append(':')
+                    .append(dedupKey.getDigestHigh()).append(':')
+                    .append(dedupKey.getDigestLow()).append(';');
+        }
+        return identity.toString();
+    }
+
+    // один ключ - SET NX EX, несколько - скрипт, который проверяет и записывает их атомарно.
+    // В режиме хэшированных ключей хранится только байт-маркер, иначе - всё сообщение, как раньше
+    private Response<?> claim(Pipeline pipeline, Claim claim, Message message, boolean cachedScript) {
+        byte[] value = hashedKeys ? MARKER : message.getValue().getBytes(StandardCharsets.UTF_8);
+        if (claim.keys.size() == 1) {
+            DedupKey dedupKey = claim.keys.get(0);
+            return pipeline.set(storageKey(dedupKey), value, SetParams.setParams().nx().ex(dedupKey.getTtlSec()));
+        }
+
+        List<byte[]> keys = new ArrayList<>(claim.keys.size());
+        List<byte[]> args = new ArrayList<>(claim.keys.size() * 2);
+        for (DedupKey dedupKey : claim.keys) {
+            keys.add(storageKey(dedupKey));
+            args.add(value);
+            args.add(Long.toString(dedupKey.getTtlSec()).getBytes(StandardCharsets.UTF_8));
+        }
+        return cachedScript
+                ? pipeline.evalsha(CLAIM_SCRIPT_SHA, keys, args)
+                : pipeline.eval(CLAIM_SCRIPT, keys, args);
+    }
+
+    private byte[] storageKey(DedupKey dedupKey) {
+        return hashedKeys ? dedupKey.hashedKey() : dedupKey.textKey().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sha1Hex(byte[] script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString().getBytes(StandardCharsets.US_ASCII);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        log.info("Closing redis client");
+        for (int n = 0; n < nodes.size(); n++) {
+            RedisPoolMetrics.unregister(nodeNames.get(n));
+            nodes.get(n).close();
+        }
+    }
+
+    // ключи одного сообщения, которые лежат на одном узле
+    private static final class Claim {
+        private final int message;
+        private final List<DedupKey> keys;
+
+        private Claim(int message, List<DedupKey> keys) {
+            this.message = message;
+            this.keys = keys;
         }
     }
 }
@@ -1,26 +1,27 @@
 package ru.mai.lessons.rpks.impl;
 
-import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import ru.mai.lessons.rpks.RedisClient;
 import ru.mai.lessons.rpks.RuleProcessor;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Slf4j
 public class RuleProcessorImpl implements RuleProcessor {
-    private final Config config;
+    private final RedisClient redisClient;
 
-    RuleProcessorImpl(Config config) {
-        this.config = config;
+    RuleProcessorImpl(RedisClient redisClient) {
+        this.redisClient = redisClient;
     }
 
     @Override
     public Message processing(Message message, Rule[] rules) {
         log.info("Processing message in Rule Processor");
         try {
-            RedisClient redisClient = new RedisClientImpl(config);
-
             if (rules == null || rules.length == 0) {
                 message.setDeduplicationState(true);
                 return message;
@@ -31,7 +32,7 @@ public class RuleProcessorImpl implements RuleProcessor {
                 return message;
             }
 
-            boolean boolResult = redisClient.checkDuplicate(message, rules);
+            boolean boolResult = redisClient.checkDuplicate(message, KeyPlan.compile(rules));
             message.setDeduplicationState(boolResult);
             return message;
         } catch (Exception e) {
@@ -40,4 +41,29 @@ public class RuleProcessorImpl implements RuleProcessor {
 
         return message;
     }
+
+    @Override
+    public List<Message> processing(List<Message> messages, KeyPlan keyPlan) {
+        log.info("Processing batch of {} messages in Rule Processor", messages.size());
+        if (!keyPlan.hasRules()) {
+            messages.forEach(message -> message.setDeduplicationState(true));
+            return messages;
+        }
+
+        List<Message> checked = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getValue() == null || message.getValue().isEmpty()) {
+                message.setDeduplicationState(false);
+            } else {
+                checked.add(message);
+            }
+        }
+
+        boolean[] states = redisClient.checkDuplicates(checked, keyPlan);
+        for (int i = 0; i < states.length; i++) {
+            checked.get(i).setDeduplicationState(states[i]);
+        }
+
+        return messages;
+    }
 }
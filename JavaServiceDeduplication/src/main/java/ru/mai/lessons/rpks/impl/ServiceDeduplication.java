@@ -3,6 +3,7 @@ package ru.mai.lessons.rpks.impl;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import ru.mai.lessons.rpks.KafkaReader;
+import ru.mai.lessons.rpks.RedisClient;
 import ru.mai.lessons.rpks.Service;
 
 @Slf4j
@@ -10,11 +11,25 @@ public class ServiceDeduplication implements Service {
     @Override
     public void start(Config config) {
         log.info("Starting service");
-        try {
-            KafkaReader kafkaReader = new KafkaReaderImpl(config);
+        try (RedisClient redisClient = createStore(config)) {
+            KafkaReader kafkaReader = new KafkaReaderImpl(config, redisClient);
             kafkaReader.processing();
         } catch (Exception e) {
             log.error("Error while processing", e);
         }
     }
+
+    private RedisClient createStore(Config config) {
+        String store = config.getString("application.store");
+        switch (store) {
+            case "redis":
+                return new RedisClientImpl(config);
+            case "offheap":
+                return OffHeapStoreClientImpl.offHeap(config);
+            case "mmap":
+                return OffHeapStoreClientImpl.mapped(config);
+            default:
+                throw new IllegalArgumentException("Unknown key store: " + store);
+        }
+    }
 }
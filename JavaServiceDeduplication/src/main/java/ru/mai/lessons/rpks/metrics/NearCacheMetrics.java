@@ -0,0 +1,67 @@
+package ru.mai.lessons.rpks.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.mai.lessons.rpks.dedup.NearCache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Статистика локального кэша ключей, публикуемая через JMX как ru.mai.lessons.rpks:type=NearCacheMetrics.
+ */
+@Slf4j
+public final class NearCacheMetrics implements NearCacheMetricsMXBean {
+    private static final String OBJECT_NAME = "ru.mai.lessons.rpks:type=NearCacheMetrics";
+
+    private final NearCache nearCache;
+
+    private NearCacheMetrics(NearCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    public static void register(NearCache nearCache) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new NearCacheMetrics(nearCache), name);
+        } catch (JMException e) {
+            log.warn("Failed to register near cache metrics: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return nearCache.size();
+    }
+
+    @Override
+    public long getHits() {
+        return nearCache.getHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return nearCache.getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long total = nearCache.getHits() + nearCache.getMisses();
+        return total == 0 ? 0.0 : (double) nearCache.getHits() / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return nearCache.getEvictions();
+    }
+
+    @Override
+    public long getExpirations() {
+        return nearCache.getExpirations();
+    }
+}
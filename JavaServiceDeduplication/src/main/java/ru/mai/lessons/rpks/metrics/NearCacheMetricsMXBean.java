@@ -0,0 +1,10 @@
+package ru.mai.lessons.rpks.metrics;
+
+public interface NearCacheMetricsMXBean {
+    public int getSize(); // число ключей в локальном кэше
+    public long getHits(); // дубли, определённые без запроса к хранилищу
+    public long getMisses(); // ключи, которых не было в локальном кэше
+    public double getHitRatio(); // доля попаданий среди всех проверок
+    public long getEvictions(); // записи, вытесненные из-за ограничения размера
+    public long getExpirations(); // записи, удалённые по истечении времени жизни
+}
@@ -0,0 +1,73 @@
+package ru.mai.lessons.rpks.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.mai.lessons.rpks.dedup.KeyStore;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Заполнение локального хранилища ключей (offheap или mmap), публикуемое через JMX как ru.mai.lessons.rpks:type=OffHeapStoreMetrics.
+ */
+@Slf4j
+public final class OffHeapStoreMetrics implements OffHeapStoreMetricsMXBean {
+    private static final String OBJECT_NAME = "ru.mai.lessons.rpks:type=OffHeapStoreMetrics";
+
+    private final KeyStore store;
+
+    private OffHeapStoreMetrics(KeyStore store) {
+        this.store = store;
+    }
+
+    public static void register(KeyStore store) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new OffHeapStoreMetrics(store), name);
+        } catch (JMException e) {
+            log.warn("Failed to register off-heap store metrics: {}", e.getMessage());
+        }
+    }
+
+    public static void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to unregister off-heap store metrics: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return store.size();
+    }
+
+    @Override
+    public long getCapacity() {
+        return store.getCapacity();
+    }
+
+    @Override
+    public double getFillRatio() {
+        return (double) store.size() / store.getCapacity();
+    }
+
+    @Override
+    public long getExpirations() {
+        return store.getExpirations();
+    }
+
+    @Override
+    public long getEvictions() {
+        return store.getEvictions();
+    }
+}
@@ -0,0 +1,9 @@
+package ru.mai.lessons.rpks.metrics;
+
+public interface OffHeapStoreMetricsMXBean {
+    public long getSize(); // число ключей в хранилище, включая истёкшие, но ещё не удалённые
+    public long getCapacity(); // наибольшее число ключей
+    public double getFillRatio(); // доля занятой ёмкости
+    public long getExpirations(); // ключи, удалённые по истечении времени жизни
+    public long getEvictions(); // ключи, вытесненные до истечения из-за переполнения
+}
@@ -0,0 +1,83 @@
+package ru.mai.lessons.rpks.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.util.Pool;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Состояние пула соединений узла Redis, публикуемое через JMX как ru.mai.lessons.rpks:type=RedisPoolMetrics,node="host:port".
+ */
+@Slf4j
+public final class RedisPoolMetrics implements RedisPoolMetricsMXBean {
+    private static final String OBJECT_NAME = "ru.mai.lessons.rpks:type=RedisPoolMetrics";
+
+    private final Pool<Connection> pool;
+
+    private RedisPoolMetrics(Pool<Connection> pool) {
+        this.pool = pool;
+    }
+
+    public static void register(String node, Pool<Connection> pool) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(node);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new RedisPoolMetrics(pool), name);
+        } catch (JMException e) {
+            log.warn("Failed to register redis pool metrics: {}", e.getMessage());
+        }
+    }
+
+    public static void unregister(String node) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(node);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to unregister redis pool metrics: {}", e.getMessage());
+        }
+    }
+
+    private static ObjectName objectName(String node) throws JMException {
+        return new ObjectName(OBJECT_NAME + ",node=" + ObjectName.quote(node));
+    }
+
+    @Override
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    @Override
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    @Override
+    public int getNumWaiters() {
+        return pool.getNumWaiters();
+    }
+
+    @Override
+    public long getMeanBorrowWaitTimeMillis() {
+        return pool.getMeanBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public long getMaxBorrowWaitTimeMillis() {
+        return pool.getMaxBorrowWaitTimeMillis();
+    }
+
+    @Override
+    public long getDestroyedByEvictorCount() {
+        return pool.getDestroyedByEvictorCount();
+    }
+}
@@ -0,0 +1,10 @@
+package ru.mai.lessons.rpks.metrics;
+
+public interface RedisPoolMetricsMXBean {
+    public int getNumActive(); // число соединений, выданных из пула
+    public int getNumIdle(); // число свободных соединений в пуле
+    public int getNumWaiters(); // число потоков, ожидающих соединение
+    public long getMeanBorrowWaitTimeMillis(); // среднее время ожидания соединения
+    public long getMaxBorrowWaitTimeMillis(); // максимальное время ожидания соединения
+    public long getDestroyedByEvictorCount(); // число соединений, закрытых по простою
+}
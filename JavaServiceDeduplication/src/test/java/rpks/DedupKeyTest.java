@@ -0,0 +1,68 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.dedup.DedupKey;
+import ru.mai.lessons.rpks.dedup.KeyDigest;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupKeyTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Rule[] rules = {
+            new Rule(7L, 1L, "name", 10L, true),
+            new Rule(7L, 2L, "age", 20L, true),
+            new Rule(7L, 3L, "sex", 30L, false)
+    };
+
+    /**
+     * Проверяет состав ключа: значения активных правил, наибольшее время жизни и пространство имён deduplication_id
+     */
+    @Test
+    void testKeyFromActiveRules() throws Exception {
+        DedupKey key = DedupKey.of(mapper.readTree("{\"name\":\"alex\", \"age\":18, \"sex\":\"M\"}"), rules);
+
+        assertEquals("alex:18:", key.getText());
+        assertEquals(20L, key.getTtlSec());
+        assertEquals(7L, key.getDeduplicationId());
+
+        byte[] hashedKey = key.hashedKey();
+        byte[] prefix = "dedup:7:".getBytes(StandardCharsets.UTF_8);
+        assertEquals(prefix.length + KeyDigest.SIZE, hashedKey.length);
+        assertArrayEquals(prefix, Arrays.copyOf(hashedKey, prefix.length));
+        assertArrayEquals(key.digest(), Arrays.copyOfRange(hashedKey, prefix.length, hashedKey.length));
+    }
+
+    /**
+     * Проверяет, что хэш не склеивает разные наборы значений, которые дают одинаковый текстовый ключ
+     */
+    @Test
+    void testDigestSeparatesValues() throws Exception {
+        DedupKey first = DedupKey.of(mapper.readTree("{\"name\":\"a:b\", \"age\":\"c\"}"), rules);
+        DedupKey second = DedupKey.of(mapper.readTree("{\"name\":\"a\", \"age\":\"b:c\"}"), rules);
+        DedupKey same = DedupKey.of(mapper.readTree("{\"age\":\"c\", \"name\":\"a:b\"}"), rules);
+
+        assertEquals(first.getText(), second.getText());
+        assertFalse(Arrays.equals(first.digest(), second.digest()));
+        assertArrayEquals(first.digest(), same.digest());
+        assertTrue(DedupKey.of(mapper.readTree("{\"sex\":\"M\"}"), rules).isEmpty());
+    }
+
+    /**
+     * Проверяет MurmurHash3 x64_128 на известных значениях
+     */
+    @Test
+    void testKeyDigestVectors() {
+        assertArrayEquals(new long[]{0L, 0L}, KeyDigest.hash(new byte[0], 0));
+
+        byte[] data = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+        long[] hash = KeyDigest.hash(data, data.length);
+        assertEquals(0xe34bbc7bbc071b6cL, hash[0]);
+        assertEquals(0x7a433ca9c49a9347L, hash[1]);
+    }
+}
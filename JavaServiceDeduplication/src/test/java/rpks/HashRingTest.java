@@ -0,0 +1,52 @@
+package rpks;
+
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.dedup.HashRing;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final int KEY_COUNT = 100_000;
+
+    /**
+     * Проверяет, что ключи распределяются по узлам примерно поровну
+     */
+    @Test
+    void testKeysSpreadEvenly() {
+        HashRing ring = new HashRing(List.of("redis-1:6379", "redis-2:6379", "redis-3:6379", "redis-4:6379"), 160);
+        int[] counts = new int[4];
+        Random random = new Random(1);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            counts[ring.nodeFor(random.nextLong())]++;
+        }
+
+        for (int count : counts) {
+            assertEquals(KEY_COUNT / 4.0, count, KEY_COUNT * 0.05);
+        }
+    }
+
+    /**
+     * Проверяет, что при добавлении узла переезжают только ключи на новый узел, около 1/N всех
+     */
+    @Test
+    void testAddingNodeMovesOnlyItsShare() {
+        HashRing before = new HashRing(List.of("redis-1:6379", "redis-2:6379", "redis-3:6379"), 160);
+        HashRing after = new HashRing(List.of("redis-1:6379", "redis-2:6379", "redis-3:6379", "redis-4:6379"), 160);
+
+        int moved = 0;
+        Random random = new Random(2);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            long hash = random.nextLong();
+            int node = after.nodeFor(hash);
+            if (node != before.nodeFor(hash)) {
+                assertEquals(3, node);
+                moved++;
+            }
+        }
+
+        assertEquals(KEY_COUNT / 4.0, moved, KEY_COUNT * 0.05);
+    }
+}
@@ -0,0 +1,100 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.dedup.DedupKey;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyPlanTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Rule[] rules = {
+            new Rule(7L, 1L, "name", 10L, true),
+            new Rule(7L, 2L, "age", 20L, true),
+            new Rule(7L, 3L, "sex", 30L, false),
+            new Rule(8L, 4L, "name", 5L, true)
+    };
+
+    /**
+     * Проверяет, что потоковое извлечение даёт тот же ключ, что и дерево JSON, для значений разных типов
+     */
+    @Test
+    void testStreamingMatchesTree() throws Exception {
+        KeyPlan plan = KeyPlan.compile(rules);
+        List<String> messages = List.of(
+                "{\"name\":\"alex\", \"age\":18, \"sex\":\"M\"}",
+                "{\"payload\":{\"name\":\"x\",\"age\":[1,2]}, \"age\":1.50, \"name\":true}",
+                "{\"age\":12345678901234567890, \"name\":null}",
+                "{\"name\":{\"first\":\"a\"}, \"age\":-0}",
+                "{\"age\":1e2}",
+                "{\"sex\":\"M\"}",
+                "[1, 2]");
+
+        for (String message : messages) {
+            DedupKey[] streamed = plan.extract(message);
+            DedupKey[] tree = plan.extract(mapper.readTree(message));
+
+            assertEquals(2, streamed.length);
+            for (int i = 0; i < streamed.length; i++) {
+                assertEquals(tree[i].getText(), streamed[i].getText(), message);
+                assertEquals(tree[i].getTtlSec(), streamed[i].getTtlSec(), message);
+                assertEquals(tree[i].getDeduplicationId(), streamed[i].getDeduplicationId(), message);
+                assertArrayEquals(tree[i].hashedKey(), streamed[i].hashedKey(), message);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что у каждого deduplication_id свой ключ, а разбор прекращается после всех полей ключей
+     */
+    @Test
+    void testKeyPerDeduplicationIdGroup() throws Exception {
+        DedupKey[] keys = KeyPlan.compile(rules).extract("{\"age\":18, \"name\":\"alex\", \"tail\": not json");
+
+        assertEquals(2, keys.length);
+        assertEquals("alex:18:", keys[0].getText());
+        assertEquals(20L, keys[0].getTtlSec());
+        assertEquals(7L, keys[0].getDeduplicationId());
+        assertEquals("dedup:7:alex:18:", keys[0].textKey());
+        assertEquals("alex:", keys[1].getText());
+        assertEquals(5L, keys[1].getTtlSec());
+        assertEquals(8L, keys[1].getDeduplicationId());
+
+        DedupKey[] withoutName = KeyPlan.compile(rules).extract("{\"age\":18}");
+        assertTrue(withoutName[0].isStored());
+        assertFalse(withoutName[1].isStored());
+    }
+
+    /**
+     * Проверяет, что текстовый ключ единственной группы совпадает с ключом, который записывался до появления групп
+     */
+    @Test
+    void testSingleGroupKeepsPlainTextKey() throws Exception {
+        DedupKey[] keys = KeyPlan.compile(new Rule[]{rules[0], rules[1]}).extract("{\"name\":\"alex\", \"age\":18}");
+
+        assertEquals(1, keys.length);
+        assertEquals("alex:18:", keys[0].textKey());
+        assertEquals("dedup:7:", new String(keys[0].hashedKey(), 0, 8, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Проверяет план без правил и без активных правил
+     */
+    @Test
+    void testEmptyPlans() throws Exception {
+        assertFalse(KeyPlan.empty().hasRules());
+        assertEquals(0, KeyPlan.empty().extract("{\"name\":\"alex\"}").length);
+
+        KeyPlan inactive = KeyPlan.compile(new Rule[]{new Rule(1L, 1L, "name", 10L, false)});
+        assertTrue(inactive.hasRules());
+        assertEquals(0, inactive.fieldCount());
+        assertEquals(0, inactive.groupCount());
+        assertEquals(0, inactive.extract("{\"name\":\"alex\"}").length);
+    }
+}
@@ -0,0 +1,116 @@
+package rpks;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mai.lessons.rpks.dedup.MappedKeyStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedKeyStoreTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Проверяет, что ключи и их время жизни сохраняются после переоткрытия файла
+     */
+    @Test
+    void testKeysSurviveReopen() {
+        Path path = directory.resolve("keys.db");
+        try (MappedKeyStore store = new MappedKeyStore(path, 100, clock::get)) {
+            assertTrue(store.putIfAbsent(1L, 2L, 60L));
+            assertTrue(store.putIfAbsent(3L, 4L, 5L));
+        }
+
+        clock.addAndGet(10_000L);
+        try (MappedKeyStore store = new MappedKeyStore(path, 1_000, clock::get)) {
+            assertEquals(100, store.getCapacity());
+            assertEquals(2, store.size());
+            assertFalse(store.putIfAbsent(1L, 2L, 60L));
+            assertTrue(store.putIfAbsent(3L, 4L, 5L));
+            assertEquals(1, store.getExpirations());
+            assertEquals(2, store.size());
+        }
+    }
+
+    /**
+     * Проверяет, что смещения Kafka из сохранений переживают переоткрытие, а партиции не из пачки сохраняют прежние смещения
+     */
+    @Test
+    void testCheckpointOffsetsSurviveReopen() {
+        Path path = directory.resolve("keys.db");
+        TopicPartition first = new TopicPartition("test_topic_in", 0);
+        TopicPartition second = new TopicPartition("test_topic_in", 1);
+        try (MappedKeyStore store = new MappedKeyStore(path, 100, clock::get)) {
+            assertTrue(store.getCheckpointOffsets().isEmpty());
+            store.putIfAbsent(1L, 2L, 60L);
+            store.checkpoint(Map.of(first, 10L, second, 3L));
+            store.checkpoint(Map.of(first, 12L));
+        }
+
+        try (MappedKeyStore store = new MappedKeyStore(path, 100, clock::get)) {
+            assertEquals(Map.of(first, 12L, second, 3L), store.getCheckpointOffsets());
+            assertTrue(store.contains(1L, 2L));
+        }
+        assertFalse(Files.exists(directory.resolve("keys.db.offsets.tmp")));
+    }
+
+    /**
+     * Проверяет, что при переполнении сначала освобождаются истёкшие слоты, а затем вытесняется самый ранний ключ
+     */
+    @Test
+    void testOverflowReclaimsExpiredThenEarliest() {
+        try (MappedKeyStore store = new MappedKeyStore(directory.resolve("keys.db"), 3, clock::get)) {
+            store.putIfAbsent(1L, 1L, 1L);
+            store.putIfAbsent(2L, 2L, 600L);
+            store.putIfAbsent(3L, 3L, 300L);
+            clock.addAndGet(2_000L);
+
+            assertTrue(store.putIfAbsent(4L, 4L, 900L));
+            assertEquals(3, store.size());
+            assertEquals(1, store.getExpirations());
+
+            assertTrue(store.putIfAbsent(5L, 5L, 900L));
+            assertEquals(3, store.size());
+            assertEquals(1, store.getEvictions());
+            assertFalse(store.putIfAbsent(2L, 2L, 600L));
+            assertTrue(store.putIfAbsent(3L, 3L, 300L));
+        }
+    }
+
+    /**
+     * Проверяет, что размер не превышает capacity, даже если ближайшие к проходу слоты пусты
+     */
+    @Test
+    void testOverflowNeverExceedsCapacity() {
+        // 4000 ключей занимают таблицу из 8192 слотов; при low = 0 и небольшом high слот ключа - это high,
+        // поэтому все ключи лежат во второй половине, а первый проход по SWEEP_SLOTS слотам видит только пустые
+        try (MappedKeyStore store = new MappedKeyStore(directory.resolve("keys.db"), 4_000, clock::get)) {
+            for (long high = 4096; high < 4096 + 4_000; high++) {
+                assertTrue(store.putIfAbsent(high, 0L, 60L));
+            }
+
+            assertTrue(store.putIfAbsent(1L, 0L, 60L));
+            assertEquals(4_000, store.size());
+            assertEquals(1, store.getEvictions());
+            assertTrue(store.contains(1L, 0L));
+        }
+    }
+
+    /**
+     * Проверяет, что чужой файл не открывается как хранилище ключей
+     */
+    @Test
+    void testRejectsForeignFile() throws Exception {
+        Path path = Files.writeString(directory.resolve("keys.db"), "not a key store");
+
+        assertThrows(IllegalStateException.class, () -> new MappedKeyStore(path, 100, clock::get));
+    }
+}
@@ -0,0 +1,77 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.dedup.DedupKey;
+import ru.mai.lessons.rpks.dedup.NearCache;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    /**
+     * Проверяет, что ключ помнится не дольше времени жизни из правил
+     */
+    @Test
+    void testEntryExpiresWithRuleTtl() throws Exception {
+        NearCache nearCache = new NearCache(10, clock::get);
+        DedupKey key = key("alex", 5L);
+
+        assertFalse(nearCache.contains(key));
+        nearCache.put(key, clock.get());
+        clock.addAndGet(4_999L);
+        assertTrue(nearCache.contains(key));
+        clock.addAndGet(1L);
+        assertFalse(nearCache.contains(key));
+
+        assertEquals(0, nearCache.size());
+        assertEquals(1, nearCache.getHits());
+        assertEquals(2, nearCache.getMisses());
+        assertEquals(1, nearCache.getExpirations());
+    }
+
+    /**
+     * Проверяет, что срок записи отсчитывается от момента отправки ключа в хранилище, а не от ответа
+     */
+    @Test
+    void testEntryExpiresFromClaimTime() throws Exception {
+        NearCache nearCache = new NearCache(10, clock::get);
+        DedupKey key = key("alex", 5L);
+
+        long claimedAt = nearCache.now();
+        clock.addAndGet(300L); // ответ хранилища пришёл позже
+        nearCache.put(key, claimedAt);
+        clock.addAndGet(4_699L);
+        assertTrue(nearCache.contains(key));
+        clock.addAndGet(1L);
+        assertFalse(nearCache.contains(key));
+    }
+
+    /**
+     * Проверяет, что при переполнении вытесняются самые старые ключи
+     */
+    @Test
+    void testEvictsOldestEntries() throws Exception {
+        NearCache nearCache = new NearCache(2, clock::get);
+        nearCache.put(key("a", 60L), clock.get());
+        nearCache.put(key("b", 60L), clock.get());
+        nearCache.put(key("a", 60L), clock.get());
+        nearCache.put(key("c", 60L), clock.get());
+
+        assertEquals(2, nearCache.size());
+        assertEquals(1, nearCache.getEvictions());
+        assertFalse(nearCache.contains(key("b", 60L)));
+        assertTrue(nearCache.contains(key("a", 60L)));
+        assertTrue(nearCache.contains(key("c", 60L)));
+    }
+
+    private DedupKey key(String name, long ttlSec) throws Exception {
+        Rule[] rules = {new Rule(1L, 1L, "name", ttlSec, true)};
+        return DedupKey.of(mapper.readTree("{\"name\":\"" + name + "\"}"), rules);
+    }
+}
@@ -0,0 +1,104 @@
+package rpks;
+
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.dedup.OffHeapKeyStore;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapKeyStoreTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    /**
+     * Проверяет, что повтор ключа отклоняется до истечения времени жизни, а после - удаляется колесом таймеров
+     */
+    @Test
+    void testKeyExpiresWithTtl() {
+        OffHeapKeyStore store = new OffHeapKeyStore(10, clock::get);
+
+        assertTrue(store.putIfAbsent(1L, 2L, 5L));
+        assertFalse(store.putIfAbsent(1L, 2L, 5L));
+        clock.addAndGet(4_999L);
+        assertFalse(store.putIfAbsent(1L, 2L, 5L));
+        clock.addAndGet(1L);
+        store.expire();
+
+        assertEquals(0, store.size());
+        assertEquals(1, store.getExpirations());
+        assertTrue(store.putIfAbsent(1L, 2L, 5L));
+    }
+
+    /**
+     * Проверяет удаление ключей с временем жизни дольше нескольких уровней колеса
+     */
+    @Test
+    void testLongTtlCascadesThroughWheel() {
+        OffHeapKeyStore store = new OffHeapKeyStore(10, clock::get);
+        store.putIfAbsent(1L, 1L, 100_000L);
+        store.putIfAbsent(2L, 2L, 70L);
+
+        clock.addAndGet(99_999_000L);
+        store.expire();
+        assertEquals(1, store.size());
+        assertTrue(store.contains(1L, 1L));
+
+        clock.addAndGet(1_000L);
+        store.expire();
+        assertEquals(0, store.size());
+        assertEquals(2, store.getExpirations());
+    }
+
+    /**
+     * Проверяет, что при переполнении вытесняются ключи, которые истекают раньше всех
+     */
+    @Test
+    void testOverflowEvictsEarliestExpiring() {
+        OffHeapKeyStore store = new OffHeapKeyStore(3, clock::get);
+        store.putIfAbsent(1L, 1L, 600L);
+        store.putIfAbsent(2L, 2L, 10L);
+        store.putIfAbsent(3L, 3L, 300L);
+        store.putIfAbsent(4L, 4L, 60L);
+
+        assertEquals(3, store.size());
+        assertEquals(1, store.getEvictions());
+        assertFalse(store.contains(2L, 2L));
+        assertTrue(store.contains(1L, 1L));
+        assertTrue(store.contains(3L, 3L));
+        assertTrue(store.contains(4L, 4L));
+    }
+
+    /**
+     * Проверяет таблицу на случайных ключах с коллизиями и удалениями против HashMap
+     */
+    @Test
+    void testMatchesReferenceMap() {
+        OffHeapKeyStore store = new OffHeapKeyStore(1_000, clock::get);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(7);
+
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(800);
+            long ttl = 1 + random.nextInt(30);
+            boolean present = expected.containsKey(key) && expected.get(key) > clock.get();
+
+            assertEquals(!present, store.putIfAbsent(key << 32, key, ttl), "key " + key);
+            if (!present) {
+                expected.put(key, clock.get() + ttl * 1000L);
+            }
+            clock.addAndGet(random.nextInt(50));
+        }
+
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue() > clock.get(), store.contains(entry.getKey() << 32, entry.getKey()));
+        }
+        assertEquals(0, store.getEvictions());
+
+        clock.addAndGet(31_000L);
+        store.expire();
+        assertEquals(0, store.size());
+    }
+}
@@ -0,0 +1,45 @@
+package rpks;
+
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.RedisClient;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
+import ru.mai.lessons.rpks.impl.OffHeapStoreClientImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStoreClientTest {
+    private final KeyPlan plan = KeyPlan.compile(new Rule[]{
+            new Rule(1L, 1L, "orderId", 600L, true),
+            new Rule(2L, 2L, "userId", 60L, true),
+            new Rule(2L, 3L, "type", 60L, true)
+    });
+
+    /**
+     * Проверяет, что сообщение - дубль, если оно дубль хотя бы по одной группе правил, и тогда его ключи не записываются
+     */
+    @Test
+    void testDuplicateUnderAnyPolicy() {
+        try (RedisClient client = OffHeapStoreClientImpl.offHeap(ConfigFactory.load()
+                .withValue("offHeapStore.capacity", ConfigValueFactory.fromAnyRef(1000)))) {
+            boolean[] unique = client.checkDuplicates(List.of(
+                    message("{\"orderId\":1, \"userId\":\"u1\", \"type\":\"buy\"}"),
+                    message("{\"orderId\":2, \"userId\":\"u1\", \"type\":\"buy\"}"),
+                    message("{\"orderId\":1, \"userId\":\"u2\", \"type\":\"buy\"}"),
+                    message("{\"orderId\":3, \"userId\":\"u2\", \"type\":\"buy\"}"),
+                    message("{\"orderId\":4, \"userId\":\"u1\", \"type\":\"sell\"}")), plan);
+
+            assertArrayEquals(new boolean[]{true, false, false, true, true}, unique);
+            assertTrue(client.checkDuplicate(message("{\"orderId\":2, \"userId\":\"u3\", \"type\":\"buy\"}"), plan));
+        }
+    }
+
+    private Message message(String value) {
+        return Message.builder().value(value).build();
+    }
+}
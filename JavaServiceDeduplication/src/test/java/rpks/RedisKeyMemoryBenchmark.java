@@ -0,0 +1,97 @@
+package rpks;
+
+import com.redis.testcontainers.RedisContainer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import redis.clients.jedis.Jedis;
+import ru.mai.lessons.rpks.RedisClient;
+import ru.mai.lessons.rpks.dedup.KeyPlan;
+import ru.mai.lessons.rpks.impl.RedisClientImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Замеряет память Redis на один ключ дедубликации с текстовыми и хэшированными ключами.
+ * Запускается отдельно: gradle redisMemoryBenchmark.
+ */
+@Slf4j
+@Testcontainers
+@Tag("benchmark")
+class RedisKeyMemoryBenchmark {
+    private static final int KEY_COUNT = 20_000;
+    private static final int BATCH_SIZE = 500;
+
+    @Container
+    public RedisContainer redis = new RedisContainer(DockerImageName.parse("redis:5.0.3-alpine"))
+            .withExposedPorts(6379);
+
+    private final Rule[] rules = {
+            new Rule(1L, 1L, "orderId", 3600L, true),
+            new Rule(1L, 2L, "userId", 3600L, true)
+    };
+
+    /**
+     * Сравнивает прирост used_memory на ключ для сообщений около 1 КБ
+     */
+    @Test
+    void testBytesPerKey() {
+        long rawBytesPerKey = bytesPerKey(false);
+        long hashedBytesPerKey = bytesPerKey(true);
+
+        log.info("Redis memory per key: text keys {} bytes, hashed keys {} bytes", rawBytesPerKey, hashedBytesPerKey);
+        assertTrue(hashedBytesPerKey < rawBytesPerKey);
+    }
+
+    private long bytesPerKey(boolean hashedKeys) {
+        Config config = ConfigFactory.load()
+                .withValue("redis.host", ConfigValueFactory.fromAnyRef(redis.getHost()))
+                .withValue("redis.port", ConfigValueFactory.fromAnyRef(redis.getFirstMappedPort()))
+                .withValue("redis.hashedKeys", ConfigValueFactory.fromAnyRef(hashedKeys));
+
+        try (Jedis admin = new Jedis(redis.getHost(), redis.getFirstMappedPort());
+             RedisClient redisClient = new RedisClientImpl(config)) {
+            admin.flushAll();
+            long usedMemoryBefore = usedMemory(admin);
+
+            List<Message> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < KEY_COUNT; i++) {
+                batch.add(Message.builder().value(message(i)).build());
+                if (batch.size() == BATCH_SIZE) {
+                    redisClient.checkDuplicates(batch, KeyPlan.compile(rules));
+                    batch.clear();
+                }
+            }
+
+            assertEquals(KEY_COUNT, admin.dbSize());
+            return (usedMemory(admin) - usedMemoryBefore) / KEY_COUNT;
+        }
+    }
+
+    private static long usedMemory(Jedis admin) {
+        for (String line : admin.info("memory").split("\r\n")) {
+            if (line.startsWith("used_memory:")) {
+                return Long.parseLong(line.substring("used_memory:".length()));
+            }
+        }
+
+        throw new IllegalStateException("used_memory not found in redis info");
+    }
+
+    private static String message(int i) {
+        return "{\"orderId\":\"" + UUID.randomUUID() + "\", \"userId\":\"user-" + i + "\", \"type\":\"purchase\", "
+                + "\"payload\":\"" + "x".repeat(900) + "\"}";
+    }
+}
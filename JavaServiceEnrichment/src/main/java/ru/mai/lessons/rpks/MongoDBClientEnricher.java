@@ -1,8 +1,13 @@
 package ru.mai.lessons.rpks;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.List;
+
 public interface MongoDBClientEnricher {
-    public Message processing(Message message, Rule rule);
+    public void processing(ObjectNode jsonNode, Rule rule); // обогащает по правилу уже разобранное сообщение, изменяя его дерево: сообщение разбирается и сериализуется один раз для всех правил
+
+    public List<Message> processing(List<Message> messages, Rule[] rules); // обогащает пачку сообщений всеми правилами по порядку; документы для всех пар (поле, значение) из правил ищутся одним запросом на каждое поле коллекции
 }
@@ -3,8 +3,12 @@ package ru.mai.lessons.rpks;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.List;
+
 public interface RuleProcessor {
     public Message processing(Message message, Rule[] rules);
     // применяет правила обогащения к сообщениям и вставляет документы из MongoDB в указанные поля сообщения,
     // если сообщение удовлетворяет условиям всех правил.
+
+    public List<Message> processing(List<Message> messages, Rule[] rules); // применяет правила обогащения к пачке сообщений из одного poll, число запросов к MongoDB не зависит от размера пачки
 }
@@ -0,0 +1,249 @@
+package ru.mai.lessons.rpks.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Копия коллекции MongoDB для обогащения в памяти сервиса.
+ * <p>
+ * Документы хранятся в порядке _id, в котором они загружались, и получают по этому порядку номер. По каждому полю,
+ * которое используется в правилах (fieldNameEnrichment), при первом обращении строится индекс "значение поля ->
+ * документы с этим значением по номеру", и самый новый документ - последний из них; как и при запросе к MongoDB,
+ * документ подходит, только если значение поля - строка. Изменение и удаление документа обновляют индекс
+ * за O(log n), без просмотра всей копии.
+ * <p>
+ * Новые документы догружаются запросом _id больше последнего загруженного ({@link #add(Document)}).
+ * Изменения и удаления приходят из потока изменений коллекции ({@link #put(Document)}, {@link #remove(Object)});
+ * без него они в копии не видны до перезапуска. Пропущенные, пока поток не работал, изменения применяются полной
+ * перезагрузкой копии при подписке ({@link #replaceAll(Iterable)}).
+ * <p>
+ * Копию можно сохранить в файл (по документу в расширенном JSON на строку) и загрузить при старте,
+ * чтобы обогащать сообщения ещё до того, как MongoDB станет доступна.
+ */
+@Slf4j
+public final class CollectionReplica {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Map<Object, Entry> documents = new LinkedHashMap<>();
+    private final Map<String, Map<String, NavigableMap<Long, JsonNode>>> indexes = new ConcurrentHashMap<>();
+
+    private long nextSequence;
+    private Object lastId;
+    private boolean changed;
+    private volatile boolean loaded;
+
+    // добавляет документ, загруженный после всех уже добавленных; следующая догрузка начнётся после его _id.
+    // Документ, который уже пришёл из потока изменений, не заменяется: прочитанная догрузкой версия может быть старее
+    public synchronized void add(Document document) throws JsonProcessingException {
+        Object id = document.get("_id");
+        if (!documents.containsKey(id)) {
+            put(document);
+        }
+        lastId = id;
+    }
+
+    // вставляет или заменяет документ по его _id, не сдвигая позицию догрузки; заменённый документ сохраняет свой номер
+    public synchronized void put(Document document) throws JsonProcessingException {
+        Object id = document.get("_id");
+        Entry previous = documents.get(id);
+        Entry entry = new Entry(previous == null ? nextSequence++ : previous.sequence, mapper.readTree(document.toJson()));
+        documents.put(id, entry);
+        indexes.forEach((field, index) -> {
+            // при том же значении поля документ заменяется на месте, и поиск не увидит промежуточного отсутствия
+            if (previous != null && !Objects.equals(text(previous.document, field), text(entry.document, field))) {
+                unindex(index, field, previous);
+            }
+            index(index, field, entry);
+        });
+        changed = true;
+    }
+
+    public synchronized void remove(Object id) {
+        Entry previous = documents.remove(id);
+        if (previous == null) {
+            return;
+        }
+
+        indexes.forEach((field, index) -> unindex(index, field, previous));
+        changed = true;
+    }
+
+    /**
+     * Заменяет копию всеми документами коллекции, прочитанными по возрастанию _id: документы, изменённые или удалённые
+     * в MongoDB, пока поток изменений не работал, становятся актуальными. Коллекция читается без блокировки,
+     * поэтому до замены копия продолжает отвечать прежними документами; построенные индексы перестраиваются сразу.
+     */
+    public void replaceAll(Iterable<Document> collection) throws JsonProcessingException {
+        Map<Object, Entry> loadedDocuments = new LinkedHashMap<>();
+        Object loadedLastId = null;
+        long sequence = 0L;
+        for (Document document : collection) {
+            loadedLastId = document.get("_id");
+            loadedDocuments.put(loadedLastId, new Entry(sequence++, mapper.readTree(document.toJson())));
+        }
+
+        Map<String, Map<String, NavigableMap<Long, JsonNode>>> loadedIndexes = new HashMap<>();
+        for (String field : indexes.keySet()) {
+            loadedIndexes.put(field, index(loadedDocuments, field));
+        }
+
+        synchronized (this) {
+            documents = loadedDocuments;
+            nextSequence = sequence;
+            indexes.putAll(loadedIndexes);
+            indexes.keySet().retainAll(loadedIndexes.keySet());
+            // документы, догруженные во время чтения, но не попавшие в него, догрузятся снова
+            lastId = loadedLastId;
+            changed = true;
+        }
+        log.info("Reloaded {} documents into replica", loadedDocuments.size());
+    }
+
+    // вызывается, когда загружена вся коллекция или копия из файла; до этого find ничего не находит
+    public void markLoaded() {
+        loaded = true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public synchronized Object getLastId() {
+        return lastId;
+    }
+
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Самый новый документ с указанным значением поля; {@link MissingNode}, если такого нет;
+     * null, если копия ещё не загружена и ответа она дать не может.
+     */
+    public JsonNode find(String field, String value) {
+        if (!loaded) {
+            return null;
+        }
+
+        Map<String, NavigableMap<Long, JsonNode>> index = indexes.get(field);
+        if (index == null) {
+            index = buildIndex(field);
+        }
+        NavigableMap<Long, JsonNode> matching = value == null ? null : index.get(value);
+        Map.Entry<Long, JsonNode> newest = matching == null ? null : matching.lastEntry();
+        return newest == null ? MissingNode.getInstance() : newest.getValue();
+    }
+
+    public synchronized void writeSnapshot(Path path) throws IOException {
+        if (!changed) {
+            return;
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Entry entry : documents.values()) {
+                writer.write(entry.document.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+        log.info("Saved {} documents to snapshot {}", documents.size(), path);
+    }
+
+    // false - файла нет, копию нужно загружать из MongoDB целиком
+    public synchronized boolean loadSnapshot(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    add(Document.parse(line));
+                }
+            }
+        }
+        changed = false;
+        markLoaded();
+        log.info("Loaded {} documents from snapshot {}", documents.size(), path);
+        return true;
+    }
+
+    private synchronized Map<String, NavigableMap<Long, JsonNode>> buildIndex(String field) {
+        Map<String, NavigableMap<Long, JsonNode>> index = indexes.get(field);
+        if (index != null) {
+            return index;
+        }
+
+        index = index(documents, field);
+        indexes.put(field, index);
+        log.info("Built index by field {} over {} documents", field, documents.size());
+        return index;
+    }
+
+    private static Map<String, NavigableMap<Long, JsonNode>> index(Map<Object, Entry> documents, String field) {
+        Map<String, NavigableMap<Long, JsonNode>> index = new ConcurrentHashMap<>();
+        for (Entry entry : documents.values()) {
+            index(index, field, entry);
+        }
+        return index;
+    }
+
+    private static void index(Map<String, NavigableMap<Long, JsonNode>> index, String field, Entry entry) {
+        String value = text(entry.document, field);
+        if (value != null) {
+            index.computeIfAbsent(value, key -> new ConcurrentSkipListMap<>()).put(entry.sequence, entry.document);
+        }
+    }
+
+    // убирает документ из индекса; значение без документов удаляется, чтобы индекс не рос от удалённых значений
+    private static void unindex(Map<String, NavigableMap<Long, JsonNode>> index, String field, Entry entry) {
+        String value = text(entry.document, field);
+        NavigableMap<Long, JsonNode> matching = value == null ? null : index.get(value);
+        if (matching == null) {
+            return;
+        }
+
+        matching.remove(entry.sequence);
+        if (matching.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    // значение поля, если это строка, иначе null
+    private static String text(JsonNode document, String field) {
+        JsonNode value = document.get(field);
+        return value != null && value.isTextual() ? value.asText() : null;
+    }
+
+    // документ и его номер в порядке загрузки: чем больше номер, тем новее документ
+    private static final class Entry {
+        private final long sequence;
+        private final JsonNode document;
+
+        private Entry(long sequence, JsonNode document) {
+            this.sequence = sequence;
+            this.document = document;
+        }
+    }
+}
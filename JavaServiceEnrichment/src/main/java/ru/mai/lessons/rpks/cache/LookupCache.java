@@ -0,0 +1,197 @@
+package ru.mai.lessons.rpks.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import lombok.EqualsAndHashCode;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш документов MongoDB для обогащения по паре (поле коллекции, значение поля).
+ * <p>
+ * Размер ограничен: при переполнении вытесняются записи, к которым дольше всего не обращались.
+ * Найденный документ живёт ttl, а отсутствие документа (в сообщение идёт значение по умолчанию) - negativeTtl;
+ * negativeTtl = 0 отключает запоминание промахов. Документы в кэше общие для всех сообщений и не изменяются.
+ * <p>
+ * Пока работает поток изменений коллекции, записи удаляются по событиям о документах ({@link #invalidate(JsonNode)}),
+ * поэтому время жизни можно увеличить через {@link #setTtl(long, long)}.
+ */
+public final class LookupCache {
+    private final int maxSize;
+    private long ttlMillis;
+    private long negativeTtlMillis;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private long hits;
+    private long negativeHits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long version;
+
+    public LookupCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+        this(maxSize, ttlMillis, negativeTtlMillis, System::currentTimeMillis);
+    }
+
+    public LookupCache(int maxSize, long ttlMillis, long negativeTtlMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > LookupCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Документ из кэша; {@link MissingNode}, если запомнено, что документа нет; null, если в кэше ничего нет.
+     */
+    public synchronized JsonNode get(String field, String value) {
+        Key key = new Key(field, value);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt > clock.getAsLong()) {
+            if (entry.document.isMissingNode()) {
+                negativeHits++;
+            } else {
+                hits++;
+            }
+            return entry.document;
+        }
+
+        if (entry != null) {
+            entries.remove(key);
+            expirations++;
+        }
+        misses++;
+        return null;
+    }
+
+    // document = null - документа нет, запоминается на negativeTtl
+    public synchronized void put(String field, String value, JsonNode document) {
+        put(field, value, document, version);
+    }
+
+    // version - значение getVersion() до запроса документа: если с тех пор записи сбрасывались, ответ мог устареть и не запоминается
+    public synchronized void put(String field, String value, JsonNode document, long version) {
+        if (version != this.version || document == null && negativeTtlMillis <= 0) {
+            return;
+        }
+
+        long now = clock.getAsLong();
+        entries.put(new Key(field, value), document == null
+                ? new Entry(MissingNode.getInstance(), now + negativeTtlMillis)
+                : new Entry(document, now + ttlMillis));
+        removeExpired(now);
+    }
+
+    public synchronized void invalidate(String field, String value) {
+        version++;
+        entries.remove(new Key(field, value));
+    }
+
+    // удаляет записи, на которые мог повлиять вставленный или изменённый документ: по каждому его строковому полю и с тем же _id
+    public synchronized void invalidate(JsonNode document) {
+        document.fields().forEachRemaining(field -> {
+            if (field.getValue().isTextual()) {
+                entries.remove(new Key(field.getKey(), field.getValue().asText()));
+            }
+        });
+        invalidateId(document.get("_id"));
+    }
+
+    // удаляет записи с документом с этим _id, например удалённым из коллекции
+    public synchronized void invalidateId(JsonNode id) {
+        version++;
+        if (id != null) {
+            entries.values().removeIf(entry -> id.equals(entry.document.get("_id")));
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // меняется при каждом сбросе записей
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // новое время жизни действует для записей, добавленных после вызова
+    public synchronized void setTtl(long ttlMillis, long negativeTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getNegativeHits() {
+        return negativeHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    // порядок записей - по обращениям, а не по истечению, поэтому с головы снимаются только подряд истёкшие
+    private void removeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().expiresAt > now) {
+                return;
+            }
+            iterator.remove();
+            expirations++;
+        }
+    }
+
+    @EqualsAndHashCode
+    private static final class Key {
+        private final String field;
+        private final String value;
+
+        private Key(String field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+    }
+
+    private static final class Entry {
+        private final JsonNode document;
+        private final long expiresAt;
+
+        private Entry(JsonNode document, long expiresAt) {
+            this.document = document;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package ru.mai.lessons.rpks.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.typesafe.config.Config;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import ru.mai.lessons.rpks.cache.CollectionReplica;
+import ru.mai.lessons.rpks.cache.LookupCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подписка на поток изменений коллекции для обогащения: вставки, изменения и удаления документов
+ * сразу сбрасывают затронутые записи кэша и применяются к копии коллекции.
+ * <p>
+ * Пока поток работает, записи кэша живут changeStream.ttl. После временного сбоя поток продолжается с сохранённой
+ * позиции (resumeAfter), и пропущенные события применяются. Если продолжить не удалось, кэш очищается, так как события
+ * могли быть пропущены, и записи снова живут mongo.cache.ttl. Если поток недоступен с самого начала (MongoDB без набора
+ * реплик), кэш просто работает с mongo.cache.ttl. Подписка повторяется каждые changeStream.retryInterval.
+ * <p>
+ * Копия коллекции, пока поток не работает, продолжает отвечать прежними документами и получает только новые
+ * документы из догрузки. Поэтому при каждой подписке копия перезагружается целиком уже после открытия потока:
+ * изменения и удаления, пропущенные до этого, применяются, а более поздние придут событиями потока.
+ */
+@Slf4j
+public class ChangeStreamWatcher {
+    /**
+     * Откуда берутся поток изменений и документы для перезагрузки копии: коллекция MongoDB или, в тестах, заготовленные события.
+     */
+    public interface ChangeSource {
+        public MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(BsonDocument resumeToken); // курсор с полными документами; resumeToken - позиция, после которой продолжить, или null
+
+        public Iterable<Document> documents(); // все документы коллекции по возрастанию _id
+    }
+
+    private static final DocumentCodec DOCUMENT_CODEC = new DocumentCodec();
+
+    private final ChangeSource source;
+    private final LookupCache lookupCache;
+    private final CollectionReplica replica;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final long streamTtlMillis;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final long retryIntervalMillis;
+    private final Thread thread;
+
+    private volatile boolean running;
+    private boolean streaming; // поток был открыт; сбрасывается, когда он оборвался
+    private boolean unavailableLogged;
+    private BsonDocument resumeToken;
+
+    // lookupCache и replica могут быть null, если соответствующий режим не используется
+    public ChangeStreamWatcher(MongoCollection<Document> collection, Config mongoConfig, LookupCache lookupCache, CollectionReplica replica) {
+        this(source(collection), mongoConfig, lookupCache, replica);
+    }
+
+    public ChangeStreamWatcher(ChangeSource source, Config mongoConfig, LookupCache lookupCache, CollectionReplica replica) {
+        this.source = source;
+        this.lookupCache = lookupCache;
+        this.replica = replica;
+        this.streamTtlMillis = mongoConfig.getDuration("changeStream.ttl").toMillis();
+        this.ttlMillis = mongoConfig.getDuration("cache.ttl").toMillis();
+        this.negativeTtlMillis = mongoConfig.getDuration("cache.negativeTtl").toMillis();
+        this.retryIntervalMillis = mongoConfig.getDuration("changeStream.retryInterval").toMillis();
+        this.thread = new Thread(this::watch, "mongo-change-stream");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch() {
+        while (running) {
+            BsonDocument openedAt = resumeToken;
+            try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = source.open(resumeToken)) {
+                onStarted(openedAt != null);
+                while (running) {
+                    ChangeStreamDocument<Document> event = cursor.tryNext();
+                    if (event != null) {
+                        apply(event);
+                    }
+                    // позиция после последней пачки, даже пустой, чтобы продолжить можно было и без событий
+                    if (cursor.getResumeToken() != null) {
+                        resumeToken = cursor.getResumeToken();
+                    }
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                // продолжаем, только если курсор успел сдвинуть позицию: иначе не удалось само продолжение
+                // (или одно и то же событие не применяется), и повторять его бессмысленно
+                if (resumeToken != null && !resumeToken.equals(openedAt)) {
+                    // временный сбой (сеть, смена первичного узла): события не потеряны, продолжаем с сохранённой позиции
+                    log.warn("Change stream interrupted, resuming: {}", e.getMessage());
+                    continue;
+                }
+                onStopped(e);
+                try {
+                    Thread.sleep(retryIntervalMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static ChangeSource source(MongoCollection<Document> collection) {
+        return new ChangeSource() {
+            @Override
+            public MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(BsonDocument resumeToken) {
+                var changeStream = collection.watch()
+                        .fullDocument(FullDocument.UPDATE_LOOKUP)
+                        .maxAwaitTime(1, TimeUnit.SECONDS);
+                return (resumeToken == null ? changeStream : changeStream.resumeAfter(resumeToken)).cursor();
+            }
+
+            @Override
+            public Iterable<Document> documents() {
+                return collection.find().sort(Sorts.ascending("_id"));
+            }
+        };
+    }
+
+    private void onStarted(boolean resumed) throws Exception {
+        streaming = true;
+        unavailableLogged = false;
+        if (resumed) {
+            // пропущенные события придут из потока, кэш и копия остаются как есть
+            log.info("Resumed change stream of enrichment collection");
+            return;
+        }
+
+        log.info("Watching change stream of enrichment collection");
+        if (lookupCache != null) {
+            // события до подписки неизвестны, поэтому кэш начинается заново
+            lookupCache.invalidateAll();
+            lookupCache.setTtl(streamTtlMillis, streamTtlMillis);
+        }
+        if (replica != null) {
+            replica.replaceAll(source.documents());
+            replica.markLoaded();
+        }
+    }
+
+    private void onStopped(Exception e) {
+        // подписаться или продолжить с сохранённой позиции не удалось (например, она уже вытеснена из oplog):
+        // следующая подписка начнётся с текущего момента, а пропущенное восстановит перезагрузка
+        resumeToken = null;
+        if (!streaming) {
+            // подписаться не удалось, кэш и так работает по mongo.cache.ttl; сообщаем об этом один раз
+            if (unavailableLogged) {
+                log.debug("Change stream is still unavailable: {}", e.getMessage());
+            } else {
+                log.warn("Change stream is unavailable, using cache TTL: {}", e.getMessage());
+                unavailableLogged = true;
+            }
+            return;
+        }
+
+        log.warn("Change stream stopped, falling back to cache TTL: {}", e.getMessage());
+        streaming = false;
+        unavailableLogged = true;
+        if (lookupCache != null) {
+            lookupCache.setTtl(ttlMillis, negativeTtlMillis);
+            lookupCache.invalidateAll();
+        }
+    }
+
+    private void apply(ChangeStreamDocument<Document> event) throws Exception {
+        switch (event.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                Document document = event.getFullDocument();
+                if (document == null) {
+                    // документ удалён раньше, чем его успели прочитать
+                    remove(event.getDocumentKey());
+                    return;
+                }
+                if (lookupCache != null) {
+                    lookupCache.invalidate(mapper.readTree(document.toJson()));
+                }
+                if (replica != null) {
+                    replica.put(document);
+                }
+                return;
+            case DELETE:
+                remove(event.getDocumentKey());
+                return;
+            default:
+                // коллекция удалена или переименована: после такого события поток закрывается и продолжить его нельзя,
+                // подписка начнётся заново с очисткой кэша и перезагрузкой копии
+                resumeToken = null;
+                throw new IllegalStateException("Change stream closed by " + event.getOperationType() + " event");
+        }
+    }
+
+    private void remove(BsonDocument documentKey) throws Exception {
+        if (lookupCache != null) {
+            lookupCache.invalidateId(mapper.readTree(documentKey.toJson()).get("_id"));
+        }
+        if (replica != null) {
+            // _id приводится к тем же типам, что у документов, прочитанных из коллекции
+            replica.remove(DOCUMENT_CODEC.decode(new BsonDocumentReader(documentKey), DecoderContext.builder().build()).get("_id"));
+        }
+    }
+}
@@ -11,7 +11,9 @@ import ru.mai.lessons.rpks.RuleProcessor;
 import ru.mai.lessons.rpks.model.Message;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
 
 @Slf4j
@@ -64,14 +66,15 @@ public class KafkaReaderImpl implements KafkaReader {
 
                 log.info("Received {} records from Kafka", records.count());
 
+                List<Message> messages = new ArrayList<>(records.count());
                 for (var r : records) {
-                    String message = r.value();
-                    var rules = dbReader.getRules();
-                    log.info("Received message: {}", message);
+                    log.info("Received message: {}", r.value());
+                    messages.add(Message.builder().value(r.value()).build());
+                }
 
-                    var enrichmentMessages = ruleProcessor.processing(Message.builder().value(message).build(), rules);
-                    log.info("Received message2: {}", enrichmentMessages);
-                    kafkaWriter.processing(enrichmentMessages);
+                for (Message enrichmentMessage : ruleProcessor.processing(messages, dbReader.getRules())) {
+                    log.debug("Enriched message: {}", enrichmentMessage);
+                    kafkaWriter.processing(enrichmentMessage);
                 }
             }
         } catch (Exception e) {
@@ -13,7 +13,7 @@ import java.util.Properties;
 @Slf4j
 public class KafkaWriterImpl implements KafkaWriter {
     private final Config config;
-    private final KafkaProducer<String, String> producer;
+    private final KafkaProducer<String, Message> producer;
 
     public KafkaWriterImpl(Config config) {
         this.config = config;
@@ -24,15 +24,16 @@ public class KafkaWriterImpl implements KafkaWriter {
         Properties properties = new Properties();
         properties.put("bootstrap.servers", config.getString("kafka.producer.bootstrap.servers"));
         properties.put("key.serializer", StringSerializer.class.getName());
-        properties.put("value.serializer", StringSerializer.class.getName());
+        properties.put("value.serializer", MessageSerializer.class.getName());
 
         return properties;
     }
 
     @Override
     public void processing(Message message) {
-        log.info("Processing message: {}", message);
-        producer.send(new ProducerRecord<>(config.getString("kafka.producer.topic.out"), message.getValue()));
+        // сообщение не выводится целиком на уровне INFO: toString сериализовал бы дерево ещё раз
+        log.debug("Processing message: {}", message);
+        producer.send(new ProducerRecord<>(config.getString("kafka.producer.topic.out"), message));
         log.info("Message sent");
     }
 }
@@ -0,0 +1,34 @@
+package ru.mai.lessons.rpks.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+import ru.mai.lessons.rpks.model.Message;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Сериализатор значения записи Kafka: дерево обогащённого сообщения пишется сразу в UTF-8 байты записи,
+ * без промежуточной строки; сообщение без дерева (не удалось разобрать) отправляется как есть.
+ */
+public class MessageSerializer implements Serializer<Message> {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Override
+    public byte[] serialize(String topic, Message message) {
+        if (message == null) {
+            return null;
+        }
+
+        if (message.getJsonNode() == null) {
+            return message.getValue() == null ? null : message.getValue().getBytes(StandardCharsets.UTF_8);
+        }
+
+        try {
+            return mapper.writeValueAsBytes(message.getJsonNode());
+        } catch (JsonProcessingException e) {
+            throw new SerializationException("Failed to serialize message for topic " + topic, e);
+        }
+    }
+}
@@ -4,22 +4,46 @@ import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Sorts;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import org.bson.Document;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import ru.mai.lessons.rpks.MongoDBClientEnricher;
+import ru.mai.lessons.rpks.cache.CollectionReplica;
+import ru.mai.lessons.rpks.cache.LookupCache;
+import ru.mai.lessons.rpks.metrics.LookupCacheMetrics;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 public class MongoDBClientEnricherImpl implements MongoDBClientEnricher {
     private final MongoCollection<Document> collection;
     private final ObjectMapper mapper;
     private final MongoClient mongoClient;
+    private final LookupCache lookupCache;
+    private final CollectionReplica replica;
+    private final Path snapshotPath;
+    private final ChangeStreamWatcher changeStreamWatcher;
+    private ScheduledExecutorService scheduler;
 
     public MongoDBClientEnricherImpl(Config config) {
         Config mongoConfig = config.getConfig("mongo");
@@ -31,29 +55,95 @@ public class MongoDBClientEnricherImpl implements MongoDBClientEnricher {
         MongoDatabase database = mongoClient.getDatabase(mongoDatabaseName);
         this.collection = database.getCollection(mongoCollectionName);
         this.mapper = new ObjectMapper();
+
+        String lookup = mongoConfig.getString("lookup");
+        switch (lookup) {
+            case "query":
+                Config cacheConfig = mongoConfig.getConfig("cache");
+                int cacheSize = cacheConfig.getInt("maxSize");
+                this.lookupCache = cacheSize > 0
+                        ? new LookupCache(cacheSize, cacheConfig.getDuration("ttl").toMillis(), cacheConfig.getDuration("negativeTtl").toMillis())
+                        : null;
+                if (lookupCache != null) {
+                    LookupCacheMetrics.register(lookupCache);
+                }
+                this.replica = null;
+                this.snapshotPath = null;
+                break;
+            case "replica":
+                this.lookupCache = null;
+                this.replica = new CollectionReplica();
+                Config replicaConfig = mongoConfig.getConfig("replica");
+                String snapshot = replicaConfig.getString("snapshotPath");
+                this.snapshotPath = snapshot.isEmpty() ? null : Path.of(snapshot);
+                startReplication(replicaConfig);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown lookup mode: " + lookup);
+        }
+
+        this.changeStreamWatcher = mongoConfig.getBoolean("changeStream.enabled") && (lookupCache != null || replica != null)
+                ? new ChangeStreamWatcher(collection, mongoConfig, lookupCache, replica)
+                : null;
+        if (changeStreamWatcher != null) {
+            changeStreamWatcher.start();
+        }
         log.info("MongoDBClientEnricherImpl initialized");
     }
 
     @Override
-    public Message processing(Message message, Rule rule) {
+    public void processing(ObjectNode jsonNode, Rule rule) {
         log.info("start processing in MongoDBClientEnricherImpl");
 
         try {
-            ObjectNode jsonNode = (ObjectNode) mapper.readTree(message.getValue());
-
-            Document document = findDocument(rule);
+            JsonNode enrichment = findEnrichment(rule);
 
-            log.info("Found document in MongoDB: {}", document);
-
-            if (document == null || !document.getString(rule.getFieldNameEnrichment()).equals(rule.getFieldValue())) {
+            if (enrichment == null) {
                 log.info("No matching document found in MongoDB, using default value: {}", rule.getFieldValueDefault());
                 jsonNode.put(rule.getFieldName(), rule.getFieldValueDefault());
             } else {
                 log.info("Matching document found, applying enrichment");
-                jsonNode.set(rule.getFieldName(), mapper.readTree(document.toJson()));
+                // документ из кэша или копии коллекции общий, в сообщение кладётся его копия
+                jsonNode.set(rule.getFieldName(), enrichment.deepCopy());
             }
+        } catch (Exception e) {
+            // сообщение остаётся без обогащения по этому правилу
+            log.error(e.getMessage());
+        }
+    }
 
-            return new Message(jsonNode.toString());
+    @Override
+    public List<Message> processing(List<Message> messages, Rule[] rules) {
+        log.info("start batch processing of {} messages in MongoDBClientEnricherImpl", messages.size());
+
+        Map<String, Map<String, JsonNode>> enrichments = findEnrichments(rules);
+        List<Message> enrichedMessages = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            enrichedMessages.add(enrich(message, rules, enrichments));
+        }
+        return enrichedMessages;
+    }
+
+    // правила применяются по порядку, как при обработке по одному сообщению
+    private Message enrich(Message message, Rule[] rules, Map<String, Map<String, JsonNode>> enrichments) {
+        try {
+            ObjectNode jsonNode = (ObjectNode) mapper.readTree(message.getValue());
+            for (Rule rule : rules) {
+                JsonNode enrichment = enrichments.getOrDefault(rule.getFieldNameEnrichment(), Map.of()).get(rule.getFieldValue());
+                if (enrichment == null) {
+                    // документ не удалось запросить, правило пропускается
+                    continue;
+                }
+
+                if (enrichment.isMissingNode()) {
+                    jsonNode.put(rule.getFieldName(), rule.getFieldValueDefault());
+                } else {
+                    // один документ общий для кэша и всех сообщений пачки, у каждого сообщения своя копия
+                    jsonNode.set(rule.getFieldName(), enrichment.deepCopy());
+                }
+            }
+
+            return Message.builder().jsonNode(jsonNode).build();
 
         } catch (Exception e) {
             log.error(e.getMessage());
@@ -61,13 +151,163 @@ public class MongoDBClientEnricherImpl implements MongoDBClientEnricher {
         }
     }
 
+    // документы для всех пар (поле, значение) из правил: поле -> значение -> документ или MissingNode, если документа нет;
+    // значений, которые не удалось запросить, в карте нет
+    private Map<String, Map<String, JsonNode>> findEnrichments(Rule[] rules) {
+        Map<String, Map<String, JsonNode>> enrichments = new HashMap<>();
+        Map<String, Set<String>> lookups = new LinkedHashMap<>();
+        long cacheVersion = lookupCache == null ? 0L : lookupCache.getVersion();
+        for (Rule rule : rules) {
+            String field = rule.getFieldNameEnrichment();
+            String value = rule.getFieldValue();
+            JsonNode cached = replica == null ? null : replica.find(field, value);
+            if (cached == null && lookupCache != null) {
+                cached = lookupCache.get(field, value);
+            }
+            if (cached == null) {
+                lookups.computeIfAbsent(field, key -> new LinkedHashSet<>()).add(value);
+            } else {
+                enrichments.computeIfAbsent(field, key -> new HashMap<>()).put(value, cached);
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> lookup : lookups.entrySet()) {
+            String field = lookup.getKey();
+            Set<String> values = lookup.getValue();
+            try {
+                Map<String, JsonNode> found = new HashMap<>();
+                for (Document group : findNewestDocuments(field, values)) {
+                    if (group.get("_id") instanceof String value) {
+                        found.put(value, mapper.readTree(group.get("document", Document.class).toJson()));
+                    }
+                }
+                log.info("Found {} of {} documents in MongoDB by field {}", found.size(), values.size(), field);
+
+                Map<String, JsonNode> documents = enrichments.computeIfAbsent(field, key -> new HashMap<>());
+                for (String value : values) {
+                    JsonNode document = found.get(value);
+                    documents.put(value, document == null ? MissingNode.getInstance() : document);
+                    if (lookupCache != null) {
+                        lookupCache.put(field, value, document, cacheVersion);
+                    }
+                }
+            } catch (Exception e) {
+                log.error("Failed to find documents by field {}: {}", field, e.getMessage());
+            }
+        }
+
+        return enrichments;
+    }
+
+    // самый новый по _id документ для каждого значения поля - одним запросом; _id результата - значение поля
+    protected List<Document> findNewestDocuments(String field, Set<String> values) {
+        return collection.aggregate(List.of(
+                        Aggregates.match(Filters.in(field, values)),
+                        Aggregates.sort(Sorts.descending("_id")),
+                        Aggregates.group("$" + field, Accumulators.first("document", "$$ROOT"))))
+                .allowDiskUse(true)
+                .into(new ArrayList<>());
+    }
+
+    // документ для обогащения из копии коллекции, кэша или MongoDB; null - подходящего документа нет
+    private JsonNode findEnrichment(Rule rule) throws Exception {
+        JsonNode replicated = replica == null ? null : replica.find(rule.getFieldNameEnrichment(), rule.getFieldValue());
+        if (replicated != null) {
+            return replicated.isMissingNode() ? null : replicated;
+        }
+
+        long cacheVersion = 0L;
+        if (lookupCache != null) {
+            JsonNode cached = lookupCache.get(rule.getFieldNameEnrichment(), rule.getFieldValue());
+            if (cached != null) {
+                return cached.isMissingNode() ? null : cached;
+            }
+            cacheVersion = lookupCache.getVersion();
+        }
+
+        Document document = findDocument(rule);
+
+        log.info("Found document in MongoDB: {}", document);
+
+        JsonNode enrichment = document == null || !document.getString(rule.getFieldNameEnrichment()).equals(rule.getFieldValue())
+                ? null
+                : mapper.readTree(document.toJson());
+        if (lookupCache != null) {
+            lookupCache.put(rule.getFieldNameEnrichment(), rule.getFieldValue(), enrichment, cacheVersion);
+        }
+        return enrichment;
+    }
+
     private Document findDocument(Rule rule) {
         return collection.find(Filters.eq(rule.getFieldNameEnrichment(), rule.getFieldValue()))
                 .sort(Sorts.descending("_id"))
                 .first();
     }
 
+    // копия загружается из файла, если он есть, и догружается из MongoDB в фоне; пока она не загружена, документы запрашиваются из MongoDB
+    private void startReplication(Config replicaConfig) {
+        if (snapshotPath != null) {
+            try {
+                replica.loadSnapshot(snapshotPath);
+            } catch (Exception e) {
+                log.warn("Failed to load replica snapshot {}: {}", snapshotPath, e.getMessage());
+            }
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        long refreshMillis = replicaConfig.getDuration("refreshInterval").toMillis();
+        scheduler.scheduleWithFixedDelay(this::refreshReplica, 0, refreshMillis, TimeUnit.MILLISECONDS);
+        if (snapshotPath != null) {
+            long snapshotMillis = replicaConfig.getDuration("snapshotInterval").toMillis();
+            scheduler.scheduleWithFixedDelay(this::writeSnapshot, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // догружает документы с _id больше последнего загруженного, при первом запуске без файла - всю коллекцию
+    private void refreshReplica() {
+        try {
+            Object lastId = replica.getLastId();
+            int count = 0;
+            for (Document document : collection.find(lastId == null ? new Document() : Filters.gt("_id", lastId))
+                    .sort(Sorts.ascending("_id"))) {
+                replica.add(document);
+                count++;
+            }
+            if (count > 0 || !replica.isLoaded()) {
+                log.info("Replicated {} documents from MongoDB, {} in total", count, replica.size());
+            }
+            replica.markLoaded();
+        } catch (Exception e) {
+            log.warn("Failed to refresh replica from MongoDB: {}", e.getMessage());
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            replica.writeSnapshot(snapshotPath);
+        } catch (Exception e) {
+            log.warn("Failed to write replica snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
     public void shutdown() {
+        if (changeStreamWatcher != null) {
+            changeStreamWatcher.stop();
+        }
+
+        if (scheduler != null) {
+            log.info("Stopping replica refresh");
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (snapshotPath != null) {
+                writeSnapshot();
+            }
+        }
+
         log.info("Shutting down MongoClient");
         mongoClient.close();
     }
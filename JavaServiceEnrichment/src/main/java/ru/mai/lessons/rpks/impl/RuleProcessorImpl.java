@@ -1,5 +1,7 @@
 package ru.mai.lessons.rpks.impl;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import ru.mai.lessons.rpks.MongoDBClientEnricher;
@@ -7,9 +9,12 @@ import ru.mai.lessons.rpks.RuleProcessor;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.List;
+
 @Slf4j
 public class RuleProcessorImpl implements RuleProcessor {
     private final MongoDBClientEnricher clientEnricher;
+    private final ObjectMapper mapper = new ObjectMapper();
 
     public RuleProcessorImpl(Config config) {
         this.clientEnricher = new MongoDBClientEnricherImpl(config);
@@ -24,13 +29,32 @@ public class RuleProcessorImpl implements RuleProcessor {
             return message;
         }
 
-        Message processedMessage = message;
+        ObjectNode jsonNode;
+        try {
+            jsonNode = (ObjectNode) mapper.readTree(message.getValue());
+        } catch (Exception e) {
+            log.error(e.getMessage());
+            return message;
+        }
+
         for (var rule : rules) {
             log.info("Applying rule: {}", rule);
-            processedMessage = clientEnricher.processing(processedMessage, rule);
+            clientEnricher.processing(jsonNode, rule);
+        }
+
+        return Message.builder().jsonNode(jsonNode).build();
+    }
+
+    @Override
+    public List<Message> processing(List<Message> messages, Rule[] rules) {
+        log.info("Processing batch of {} messages with {} rules", messages.size(), rules != null ? rules.length : 0);
+
+        if (rules == null || rules.length == 0) {
+            log.warn("No rules provided, returning original messages");
+            return messages;
         }
 
-        return processedMessage;
+        return clientEnricher.processing(messages, rules);
     }
 
     public void shutdown() {
@@ -0,0 +1,77 @@
+package ru.mai.lessons.rpks.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.mai.lessons.rpks.cache.LookupCache;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Статистика кэша документов для обогащения, публикуемая через JMX как ru.mai.lessons.rpks:type=LookupCacheMetrics.
+ */
+@Slf4j
+public final class LookupCacheMetrics implements LookupCacheMetricsMXBean {
+    private static final String OBJECT_NAME = "ru.mai.lessons.rpks:type=LookupCacheMetrics";
+
+    private final LookupCache cache;
+
+    private LookupCacheMetrics(LookupCache cache) {
+        this.cache = cache;
+    }
+
+    public static void register(LookupCache cache) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new LookupCacheMetrics(cache), name);
+        } catch (JMException e) {
+            log.warn("Failed to register lookup cache metrics: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return cache.getMaxSize();
+    }
+
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return cache.getNegativeHits();
+    }
+
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long total = cache.getHits() + cache.getNegativeHits() + cache.getMisses();
+        return total == 0 ? 0.0 : (double) (cache.getHits() + cache.getNegativeHits()) / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @Override
+    public long getExpirations() {
+        return cache.getExpirations();
+    }
+}
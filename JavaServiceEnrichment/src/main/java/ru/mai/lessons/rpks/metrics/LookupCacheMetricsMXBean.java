@@ -0,0 +1,12 @@
+package ru.mai.lessons.rpks.metrics;
+
+public interface LookupCacheMetricsMXBean {
+    public int getSize(); // число записей в кэше
+    public int getMaxSize(); // наибольшее число записей
+    public long getHits(); // документы, найденные в кэше
+    public long getNegativeHits(); // запомненные промахи: значение по умолчанию без запроса к MongoDB
+    public long getMisses(); // запросы к MongoDB из-за отсутствия записи в кэше
+    public double getHitRatio(); // доля обращений без запроса к MongoDB
+    public long getEvictions(); // записи, вытесненные из-за ограничения размера
+    public long getExpirations(); // записи, удалённые по истечении времени жизни
+}
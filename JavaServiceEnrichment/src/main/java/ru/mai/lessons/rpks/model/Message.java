@@ -1,5 +1,6 @@
 package ru.mai.lessons.rpks.model;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -9,4 +10,5 @@ import lombok.Data;
 @AllArgsConstructor
 public class Message {
     private String value; // сообщение из Kafka в формате JSON
+    private JsonNode jsonNode; // обогащённое сообщение; если заполнено, отправляется вместо value и сериализуется один раз прямо в запись Kafka
 }
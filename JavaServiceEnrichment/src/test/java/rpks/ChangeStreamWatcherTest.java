@@ -0,0 +1,288 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.bson.BsonDocument;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.cache.CollectionReplica;
+import ru.mai.lessons.rpks.cache.LookupCache;
+import ru.mai.lessons.rpks.impl.ChangeStreamWatcher;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Применение событий потока изменений к кэшу и копии коллекции: события и сбои заготавливаются в тесте, MongoDB не нужна.
+ */
+class ChangeStreamWatcherTest {
+    private static final String FIELD = "condition_field_in_mongo";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+    private final Config mongoConfig = ConfigFactory.load().getConfig("mongo")
+            .withValue("changeStream.retryInterval", ConfigValueFactory.fromAnyRef("10ms"));
+    private final ObjectId id = new ObjectId(1, 0);
+    private final FakeSource source = new FakeSource();
+    private final LookupCache cache = new LookupCache(10, mongoConfig.getDuration("cache.ttl").toMillis(),
+            mongoConfig.getDuration("cache.negativeTtl").toMillis(), clock::get);
+    private final CollectionReplica replica = new CollectionReplica();
+    private ChangeStreamWatcher watcher;
+
+    @AfterEach
+    void stop() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    /**
+     * Проверяет, что изменение документа сбрасывает записи кэша по старому и новому значению поля и заменяет документ в копии
+     */
+    @Test
+    void testUpdateInvalidatesCacheAndReplacesDocument() throws Exception {
+        start();
+        cache.put(FIELD, "old_value", json(document("old_value", "old")));
+        cache.put(FIELD, "new_value", null);
+        cache.put(FIELD, "other_value", json(new Document("_id", new ObjectId(2, 0)).append(FIELD, "other_value")));
+
+        source.stream.add(event("update", document("new_value", "new"), 1));
+
+        await(() -> replica.find(FIELD, "new_value").has("version"));
+        assertNull(cache.get(FIELD, "old_value"));
+        assertNull(cache.get(FIELD, "new_value"));
+        assertNotNull(cache.get(FIELD, "other_value"));
+        assertTrue(replica.find(FIELD, "old_value").isMissingNode());
+    }
+
+    /**
+     * Проверяет, что удаление по ключу документа и изменение без документа (он удалён раньше, чем прочитан)
+     * убирают документ из кэша и копии
+     */
+    @Test
+    void testDeleteAndMissingFullDocumentRemoveDocument() throws Exception {
+        start();
+        String[] operationTypes = {"delete", "update"};
+        for (int i = 0; i < operationTypes.length; i++) {
+            String operationType = operationTypes[i];
+            replica.put(document("old_value", "old"));
+            cache.put(FIELD, "old_value", json(document("old_value", "old")));
+
+            source.stream.add(event(operationType, null, i + 1));
+
+            await(() -> replica.size() == 0);
+            assertNull(cache.get(FIELD, "old_value"), operationType);
+            assertTrue(replica.find(FIELD, "old_value").isMissingNode(), operationType);
+        }
+    }
+
+    /**
+     * Проверяет, что неудачные подписки не трогают кэш, а обрыв открытого потока очищает его и возвращает mongo.cache.ttl
+     */
+    @Test
+    void testCacheResetOnlyWhenRunningStreamStops() throws Exception {
+        source.available = false;
+        cache.put(FIELD, "old_value", json(document("old_value", "old")));
+        long version = cache.getVersion();
+        watcher = new ChangeStreamWatcher(source, mongoConfig, cache, null);
+        watcher.start();
+
+        await(() -> source.opens.size() >= 3);
+        assertEquals(version, cache.getVersion());
+        assertEquals(1, cache.size());
+
+        source.available = true;
+        await(() -> cache.size() == 0);
+        cache.put(FIELD, "old_value", json(document("old_value", "old")));
+        source.available = false;
+        source.stream.add(new MongoException("connection closed"));
+        await(() -> cache.size() == 0);
+
+        cache.put(FIELD, "old_value", json(document("old_value", "old")));
+        clock.addAndGet(mongoConfig.getDuration("cache.ttl").toMillis());
+        assertNull(cache.get(FIELD, "old_value"));
+    }
+
+    /**
+     * Проверяет, что после временного сбоя поток продолжается с позиции последнего события без очистки кэша и перезагрузки копии
+     */
+    @Test
+    void testResumesAfterTransientError() throws Exception {
+        start();
+        source.stream.add(event("insert", new Document("_id", new ObjectId(3, 0)).append(FIELD, "inserted"), 1));
+        await(() -> replica.find(FIELD, "inserted").has(FIELD));
+        cache.put(FIELD, "other_value", null);
+
+        source.stream.add(new MongoException("primary stepped down"));
+
+        await(() -> source.opens.size() == 2);
+        assertEquals(token(1), source.opens.get(1));
+        assertNotNull(cache.get(FIELD, "other_value"));
+        assertEquals(1, source.reloads.get());
+    }
+
+    /**
+     * Проверяет, что если продолжить поток не удалось, кэш очищается, а копия перезагружается при новой подписке
+     */
+    @Test
+    void testFallsBackWhenResumeFails() throws Exception {
+        start();
+        source.stream.add(event("insert", new Document("_id", new ObjectId(3, 0)).append(FIELD, "inserted"), 1));
+        await(() -> replica.find(FIELD, "inserted").has(FIELD));
+        cache.put(FIELD, "other_value", null);
+
+        source.resumable = false;
+        source.stream.add(new MongoException("resume point is no longer in the oplog"));
+
+        await(() -> source.reloads.get() == 2 && replica.size() == 1);
+        assertEquals(Arrays.asList(null, token(1), null), source.opens.subList(0, 3));
+        assertNull(cache.get(FIELD, "other_value"));
+    }
+
+    private void start() throws InterruptedException {
+        source.documents.add(document("old_value", "old"));
+        watcher = new ChangeStreamWatcher(source, mongoConfig, cache, replica);
+        watcher.start();
+        await(replica::isLoaded);
+    }
+
+    private Document document(String value, String version) {
+        return new Document("_id", id).append(FIELD, value).append("version", version);
+    }
+
+    private JsonNode json(Document document) throws Exception {
+        return mapper.readTree(document.toJson());
+    }
+
+    private static BsonDocument token(int position) {
+        return new BsonDocument("_data", new BsonString(Integer.toString(position)));
+    }
+
+    private ChangeStreamDocument<Document> event(String operationType, Document fullDocument, int position) {
+        Object documentId = fullDocument == null ? id : fullDocument.get("_id");
+        BsonDocument documentKey = new BsonDocument("_id", new BsonObjectId((ObjectId) documentId));
+        return new ChangeStreamDocument<>(operationType, token(position), null, null, fullDocument, null,
+                documentKey, null, null, null, null, null, null);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in " + TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    // поток изменений из очереди: событие возвращается курсором, исключение выбрасывается из него
+    private static final class FakeSource implements ChangeStreamWatcher.ChangeSource {
+        private final BlockingQueue<Object> stream = new LinkedBlockingQueue<>();
+        private final List<BsonDocument> opens = Collections.synchronizedList(new ArrayList<>());
+        private final List<Document> documents = new ArrayList<>();
+        private final AtomicInteger reloads = new AtomicInteger();
+        private volatile boolean available = true;
+        private volatile boolean resumable = true;
+
+        @Override
+        public MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(BsonDocument resumeToken) {
+            opens.add(resumeToken);
+            if (!available || (resumeToken != null && !resumable)) {
+                throw new MongoException("change stream is unavailable");
+            }
+            return new FakeCursor(stream, resumeToken);
+        }
+
+        @Override
+        public Iterable<Document> documents() {
+            reloads.incrementAndGet();
+            return new ArrayList<>(documents);
+        }
+    }
+
+    private static final class FakeCursor implements MongoChangeStreamCursor<ChangeStreamDocument<Document>> {
+        private final BlockingQueue<Object> stream;
+        private BsonDocument resumeToken;
+
+        private FakeCursor(BlockingQueue<Object> stream, BsonDocument resumeToken) {
+            this.stream = stream;
+            this.resumeToken = resumeToken;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public ChangeStreamDocument<Document> tryNext() {
+            Object next;
+            try {
+                next = stream.poll(10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MongoException("interrupted");
+            }
+            if (next instanceof RuntimeException exception) {
+                throw exception;
+            }
+            ChangeStreamDocument<Document> event = (ChangeStreamDocument<Document>) next;
+            if (event != null) {
+                resumeToken = event.getResumeToken();
+            }
+            return event;
+        }
+
+        @Override
+        public BsonDocument getResumeToken() {
+            return resumeToken;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean hasNext() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ChangeStreamDocument<Document> next() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+    }
+}
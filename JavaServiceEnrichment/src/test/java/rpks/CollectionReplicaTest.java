@@ -0,0 +1,145 @@
+package rpks;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mai.lessons.rpks.cache.CollectionReplica;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CollectionReplicaTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Проверяет, что до загрузки копия ничего не отвечает, а после - находит самый новый документ по значению поля
+     */
+    @Test
+    void testFindsNewestDocument() throws Exception {
+        CollectionReplica replica = new CollectionReplica();
+        replica.add(document(1, "condition_value", "old"));
+        replica.add(new Document("_id", new ObjectId()).append("condition_field_in_mongo", 42));
+        assertNull(replica.find("condition_field_in_mongo", "condition_value"));
+
+        replica.markLoaded();
+        assertEquals("old", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+
+        // индекс по полю уже построен и обновляется при добавлении
+        replica.add(document(2, "condition_value", "new"));
+        assertEquals("new", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+        assertTrue(replica.find("condition_field_in_mongo", "42").isMissingNode());
+        assertTrue(replica.find("unknown_field", "condition_value").isMissingNode());
+    }
+
+    /**
+     * Проверяет, что копия из файла загружается вместе с последним _id для догрузки
+     */
+    @Test
+    void testSnapshotRoundTrip() throws Exception {
+        Path snapshot = tempDir.resolve("replica.json");
+        CollectionReplica replica = new CollectionReplica();
+        assertFalse(replica.loadSnapshot(snapshot));
+        replica.add(document(1, "condition_value", "old"));
+        Document last = document(2, "condition_value", "new");
+        replica.add(last);
+        replica.writeSnapshot(snapshot);
+
+        CollectionReplica restored = new CollectionReplica();
+        assertTrue(restored.loadSnapshot(snapshot));
+        assertTrue(restored.isLoaded());
+        assertEquals(2, restored.size());
+        assertEquals(last.get("_id"), restored.getLastId());
+        assertEquals("new", restored.find("condition_field_in_mongo", "condition_value").get("version").asText());
+    }
+
+    /**
+     * Проверяет, что после изменения и удаления документа индекс указывает на самый новый из оставшихся
+     */
+    @Test
+    void testReindexesOnChangeAndDelete() throws Exception {
+        CollectionReplica replica = new CollectionReplica();
+        replica.add(document(1, "condition_value", "old"));
+        Document changed = document(2, "condition_value", "new");
+        replica.add(changed);
+        replica.markLoaded();
+        assertEquals("new", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+
+        replica.put(new Document(changed).append("condition_field_in_mongo", "other_value"));
+        assertEquals("old", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+        assertEquals("new", replica.find("condition_field_in_mongo", "other_value").get("version").asText());
+        assertEquals(changed.get("_id"), replica.getLastId());
+
+        replica.remove(new ObjectId(1, 0));
+        assertTrue(replica.find("condition_field_in_mongo", "condition_value").isMissingNode());
+        assertEquals(1, replica.size());
+    }
+
+    /**
+     * Проверяет, что догрузка не заменяет документ, который уже пришёл из потока изменений, но сдвигает позицию догрузки
+     */
+    @Test
+    void testAddKeepsDocumentFromChangeStream() throws Exception {
+        CollectionReplica replica = new CollectionReplica();
+        replica.put(document(1, "condition_value", "new"));
+        replica.add(document(1, "condition_value", "old"));
+        replica.markLoaded();
+
+        assertEquals(1, replica.size());
+        assertEquals("new", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+        assertEquals(new ObjectId(1, 0), replica.getLastId());
+    }
+
+    /**
+     * Проверяет, что полная перезагрузка применяет пропущенные изменения и удаления и перестраивает индексы
+     */
+    @Test
+    void testReplaceAllAppliesMissedChanges() throws Exception {
+        CollectionReplica replica = new CollectionReplica();
+        replica.add(document(1, "condition_value", "old"));
+        replica.add(document(2, "deleted_value", "old"));
+        replica.markLoaded();
+        assertEquals("old", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+
+        replica.replaceAll(List.of(document(1, "condition_value", "changed"), document(3, "new_value", "new")));
+
+        assertEquals(2, replica.size());
+        assertEquals(new ObjectId(3, 0), replica.getLastId());
+        assertEquals("changed", replica.find("condition_field_in_mongo", "condition_value").get("version").asText());
+        assertTrue(replica.find("condition_field_in_mongo", "deleted_value").isMissingNode());
+        assertEquals("new", replica.find("condition_field_in_mongo", "new_value").get("version").asText());
+    }
+
+    /**
+     * Проверяет, что изменённый старый документ не становится самым новым, а после удаления самого нового находится предыдущий
+     */
+    @Test
+    void testChangedDocumentKeepsItsPosition() throws Exception {
+        CollectionReplica replica = new CollectionReplica();
+        for (int timestamp = 1; timestamp <= 100; timestamp++) {
+            replica.add(document(timestamp, "value_" + timestamp % 10, "v" + timestamp));
+        }
+        replica.markLoaded();
+        assertEquals("v100", replica.find("condition_field_in_mongo", "value_0").get("version").asText());
+
+        replica.put(document(10, "value_0", "changed"));
+        assertEquals("v100", replica.find("condition_field_in_mongo", "value_0").get("version").asText());
+
+        replica.remove(new ObjectId(100, 0));
+        replica.remove(new ObjectId(90, 0));
+        assertEquals("v80", replica.find("condition_field_in_mongo", "value_0").get("version").asText());
+
+        replica.put(document(80, "value_1", "moved"));
+        assertEquals("v70", replica.find("condition_field_in_mongo", "value_0").get("version").asText());
+        assertEquals("v91", replica.find("condition_field_in_mongo", "value_1").get("version").asText());
+    }
+
+    private Document document(int timestamp, String value, String version) {
+        return new Document("_id", new ObjectId(timestamp, 0))
+                .append("condition_field_in_mongo", value)
+                .append("version", version);
+    }
+}
@@ -0,0 +1,98 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.cache.LookupCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LookupCacheTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final AtomicLong clock = new AtomicLong(1_000_000L);
+
+    /**
+     * Проверяет, что найденный документ и отсутствие документа помнятся каждый своё время
+     */
+    @Test
+    void testDocumentsAndMissesExpireSeparately() throws Exception {
+        LookupCache cache = new LookupCache(10, 60_000L, 10_000L, clock::get);
+        JsonNode document = mapper.readTree("{\"condition_field_in_mongo\":\"condition_value\"}");
+
+        assertNull(cache.get("condition_field_in_mongo", "condition_value"));
+        cache.put("condition_field_in_mongo", "condition_value", document);
+        cache.put("condition_field_in_mongo", "unknown_value", null);
+
+        assertEquals(document, cache.get("condition_field_in_mongo", "condition_value"));
+        assertTrue(cache.get("condition_field_in_mongo", "unknown_value").isMissingNode());
+
+        clock.addAndGet(10_000L);
+        assertNull(cache.get("condition_field_in_mongo", "unknown_value"));
+        assertEquals(document, cache.get("condition_field_in_mongo", "condition_value"));
+
+        clock.addAndGet(50_000L);
+        assertNull(cache.get("condition_field_in_mongo", "condition_value"));
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(2, cache.getExpirations());
+    }
+
+    /**
+     * Проверяет, что при negativeTtl = 0 промахи не запоминаются
+     */
+    @Test
+    void testNegativeCachingDisabled() {
+        LookupCache cache = new LookupCache(10, 60_000L, 0L, clock::get);
+        cache.put("condition_field_in_mongo", "unknown_value", null);
+
+        assertNull(cache.get("condition_field_in_mongo", "unknown_value"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Проверяет, что при переполнении вытесняются документы, к которым дольше всего не обращались
+     */
+    @Test
+    void testEvictsLeastRecentlyUsed() throws Exception {
+        LookupCache cache = new LookupCache(2, 60_000L, 10_000L, clock::get);
+        JsonNode document = mapper.readTree("{}");
+        cache.put("field", "a", document);
+        cache.put("field", "b", document);
+        cache.get("field", "a");
+        cache.put("field", "c", document);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("field", "b"));
+        assertNotNull(cache.get("field", "a"));
+        assertNotNull(cache.get("field", "c"));
+    }
+
+    /**
+     * Проверяет, что изменение документа сбрасывает записи по его полям и по его _id, а ответ, полученный до сброса, не запоминается
+     */
+    @Test
+    void testInvalidatesChangedDocument() throws Exception {
+        LookupCache cache = new LookupCache(10, 60_000L, 10_000L, clock::get);
+        JsonNode oldDocument = mapper.readTree("{\"_id\":{\"$oid\":\"65a000000000000000000001\"},\"field\":\"a\"}");
+        cache.put("field", "a", oldDocument);
+        cache.put("field", "b", null);
+        long version = cache.getVersion();
+
+        // документ изменён: значение поля было "a", стало "b"
+        cache.invalidate(mapper.readTree("{\"_id\":{\"$oid\":\"65a000000000000000000001\"},\"field\":\"b\"}"));
+        assertEquals(0, cache.size());
+
+        cache.put("field", "a", oldDocument, version);
+        assertNull(cache.get("field", "a"));
+
+        cache.put("field", "a", oldDocument, cache.getVersion());
+        cache.invalidateId(oldDocument.get("_id"));
+        assertNull(cache.get("field", "a"));
+    }
+}
@@ -0,0 +1,38 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.impl.MessageSerializer;
+import ru.mai.lessons.rpks.model.Message;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageSerializerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MessageSerializer serializer = new MessageSerializer();
+
+    /**
+     * Проверяет, что дерево обогащённого сообщения сериализуется так же, как строка, которая отправлялась раньше
+     */
+    @Test
+    void testSerializesTreeAsBefore() throws Exception {
+        ObjectNode jsonNode = (ObjectNode) mapper.readTree("{\"name\":\"алекс\",\"age\":18}");
+        jsonNode.set("enrichmentField", mapper.readTree("{\"_id\":{\"$oid\":\"65a000000000000000000001\"},\"value\":\"значение\"}"));
+
+        byte[] bytes = serializer.serialize("test_topic_out", Message.builder().jsonNode(jsonNode).build());
+        assertEquals(jsonNode.toString(), new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Проверяет, что сообщение без дерева отправляется без изменений
+     */
+    @Test
+    void testSendsUnparsedValueAsIs() {
+        byte[] bytes = serializer.serialize("test_topic_out", Message.builder().value("not a json").build());
+        assertEquals("not a json", new String(bytes, StandardCharsets.UTF_8));
+        assertNull(serializer.serialize("test_topic_out", null));
+    }
+}
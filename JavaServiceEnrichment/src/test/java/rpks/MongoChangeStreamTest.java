@@ -0,0 +1,101 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import ru.mai.lessons.rpks.cache.CollectionReplica;
+import ru.mai.lessons.rpks.cache.LookupCache;
+import ru.mai.lessons.rpks.impl.ChangeStreamWatcher;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Поток изменений настоящей MongoDB (контейнер запускается как набор реплик из одного узла).
+ */
+@Testcontainers
+class MongoChangeStreamTest {
+    private static final String MONGO_TEST_DB = "enrichment_db";
+    private static final String MONGO_TEST_COLLECTION = "enrichment_collection";
+    private static final String FIELD = "condition_field_in_mongo";
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    @Container
+    private final MongoDBContainer mongoDBContainer = new MongoDBContainer(DockerImageName.parse("mongo:4.0.10"));
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Проверяет, что вставка, изменение и удаление документов сбрасывают записи кэша и применяются к копии коллекции,
+     * а документы, записанные до подписки, попадают в копию при её перезагрузке
+     */
+    @Test
+    void testChangesReachCacheAndReplica() throws Exception {
+        Config mongoConfig = ConfigFactory.load().getConfig("mongo");
+        LookupCache cache = new LookupCache(10, mongoConfig.getDuration("cache.ttl").toMillis(),
+                mongoConfig.getDuration("cache.negativeTtl").toMillis());
+        CollectionReplica replica = new CollectionReplica();
+
+        try (MongoClient mongoClient = MongoClients.create(mongoDBContainer.getConnectionString())) {
+            MongoCollection<Document> collection = mongoClient.getDatabase(MONGO_TEST_DB).getCollection(MONGO_TEST_COLLECTION);
+            ObjectId existingId = new ObjectId(1, 0);
+            collection.insertOne(new Document("_id", existingId).append(FIELD, "existing_value").append("version", 1));
+
+            ChangeStreamWatcher watcher = new ChangeStreamWatcher(collection, mongoConfig, cache, replica);
+            watcher.start();
+            try {
+                await(() -> replica.isLoaded() && replica.find(FIELD, "existing_value").has("version"));
+
+                // вставка: закэшированное отсутствие документа сбрасывается
+                cache.put(FIELD, "new_value", null);
+                ObjectId newId = new ObjectId(2, 0);
+                collection.insertOne(new Document("_id", newId).append(FIELD, "new_value").append("version", 1));
+                await(() -> cache.get(FIELD, "new_value") == null && replica.find(FIELD, "new_value").has("version"));
+
+                // изменение значения поля: сбрасываются записи по старому и новому значению
+                cache.put(FIELD, "existing_value", find(collection, existingId));
+                cache.put(FIELD, "changed_value", null);
+                collection.updateOne(Filters.eq("_id", existingId), Updates.combine(
+                        Updates.set(FIELD, "changed_value"), Updates.set("version", 2)));
+                await(() -> cache.get(FIELD, "existing_value") == null && cache.get(FIELD, "changed_value") == null
+                        && replica.find(FIELD, "changed_value").path("version").asInt() == 2);
+                assertTrue(replica.find(FIELD, "existing_value").isMissingNode());
+
+                // удаление: в событии только ключ документа
+                cache.put(FIELD, "new_value", find(collection, newId));
+                collection.deleteOne(Filters.eq("_id", newId));
+                await(() -> cache.get(FIELD, "new_value") == null && replica.find(FIELD, "new_value").isMissingNode());
+                assertEquals(1, replica.size());
+            } finally {
+                watcher.stop();
+            }
+        }
+    }
+
+    private JsonNode find(MongoCollection<Document> collection, ObjectId id) throws Exception {
+        return mapper.readTree(collection.find(Filters.eq("_id", id)).first().toJson());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not reached in " + TIMEOUT);
+            Thread.sleep(100);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.impl.MongoDBClientEnricherImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Обогащение пачки сообщений по ответам запросов документов, подменённых в тесте: MongoDB не нужна.
+ */
+class MongoDBClientEnricherImplTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, List<Document>> groupsByField = new HashMap<>();
+    private final List<String> queries = new ArrayList<>();
+    private final Set<String> failingFields = new HashSet<>();
+    private MongoDBClientEnricherImpl enricher;
+
+    @AfterEach
+    void shutdown() {
+        if (enricher != null) {
+            enricher.shutdown();
+        }
+    }
+
+    /**
+     * Проверяет, что документ берётся по значению из правила, а группа с не строковым значением поля не подходит
+     */
+    @Test
+    void testEnrichesFromGroupsByValue() throws Exception {
+        enricher = enricher(10);
+        groupsByField.put("code", List.of(
+                group("a", "{\"code\":\"a\",\"version\":2}"),
+                new Document("_id", 42).append("document", Document.parse("{\"code\":42}"))));
+
+        List<Message> messages = enricher.processing(List.of(message("{\"id\":1}"), message("{\"id\":2}")), new Rule[]{
+                new Rule(1L, 1L, "byString", "code", "a", "none"),
+                new Rule(1L, 2L, "byNumber", "code", "42", "none")
+        });
+
+        assertEquals(List.of("code"), queries);
+        for (Message message : messages) {
+            JsonNode jsonNode = jsonNode(message);
+            assertEquals(2, jsonNode.get("byString").get("version").asInt());
+            assertEquals("none", jsonNode.get("byNumber").asText());
+        }
+    }
+
+    /**
+     * Проверяет, что без документа подставляется значение по умолчанию, а при ошибке запроса правило пропускается
+     */
+    @Test
+    void testDefaultOnMissingAndSkipOnFailure() throws Exception {
+        enricher = enricher(10);
+        failingFields.add("broken");
+
+        JsonNode jsonNode = jsonNode(enricher.processing(List.of(message("{\"id\":1}")), new Rule[]{
+                new Rule(1L, 1L, "missing", "code", "absent", "default"),
+                new Rule(1L, 2L, "failed", "broken", "x", "default")
+        }).get(0));
+
+        assertEquals("default", jsonNode.get("missing").asText());
+        assertFalse(jsonNode.has("failed"));
+        assertEquals(1, jsonNode.get("id").asInt());
+    }
+
+    /**
+     * Проверяет, что правила применяются по порядку: при одном поле сообщения побеждает последнее правило
+     */
+    @Test
+    void testRulesAppliedInOrderAcrossFields() throws Exception {
+        enricher = enricher(10);
+        groupsByField.put("code", List.of(group("a", "{\"code\":\"a\"}")));
+        groupsByField.put("name", List.of(group("b", "{\"name\":\"b\"}")));
+
+        Rule byCode = new Rule(1L, 1L, "enrichment", "code", "a", "none");
+        Rule byName = new Rule(1L, 2L, "enrichment", "name", "b", "none");
+        assertEquals("b", jsonNode(enricher.processing(List.of(message("{}")), new Rule[]{byCode, byName}).get(0))
+                .get("enrichment").get("name").asText());
+        assertEquals("a", jsonNode(enricher.processing(List.of(message("{}")), new Rule[]{byName, byCode}).get(0))
+                .get("enrichment").get("code").asText());
+    }
+
+    /**
+     * Проверяет, что найденные и отсутствующие документы из кэша не запрашиваются повторно, а без кэша запрашиваются
+     */
+    @Test
+    void testCacheHitsBypassQuery() throws Exception {
+        enricher = enricher(10);
+        groupsByField.put("code", List.of(group("a", "{\"code\":\"a\"}")));
+        Rule[] rules = {new Rule(1L, 1L, "found", "code", "a", "none"), new Rule(1L, 2L, "missing", "code", "b", "none")};
+
+        enricher.processing(List.of(message("{}")), rules);
+        JsonNode jsonNode = jsonNode(enricher.processing(List.of(message("{}")), rules).get(0));
+        assertEquals(1, queries.size());
+        assertEquals("a", jsonNode.get("found").get("code").asText());
+        assertEquals("none", jsonNode.get("missing").asText());
+
+        enricher.shutdown();
+        queries.clear();
+        enricher = enricher(0);
+        enricher.processing(List.of(message("{}")), rules);
+        enricher.processing(List.of(message("{}")), rules);
+        assertEquals(2, queries.size());
+    }
+
+    /**
+     * Проверяет, что изменение обогащённого сообщения не затрагивает другие сообщения пачки и документ в кэше
+     */
+    @Test
+    void testMessagesGetOwnCopyOfDocument() throws Exception {
+        enricher = enricher(10);
+        groupsByField.put("code", List.of(group("a", "{\"code\":\"a\"}")));
+        Rule[] rules = {new Rule(1L, 1L, "enrichment", "code", "a", "none")};
+
+        List<Message> messages = enricher.processing(List.of(message("{}"), message("{}")), rules);
+        ((ObjectNode) jsonNode(messages.get(0)).get("enrichment")).put("code", "changed");
+
+        assertEquals("a", jsonNode(messages.get(1)).get("enrichment").get("code").asText());
+        assertEquals("a", jsonNode(enricher.processing(List.of(message("{}")), rules).get(0)).get("enrichment").get("code").asText());
+        assertEquals(1, queries.size());
+    }
+
+    private MongoDBClientEnricherImpl enricher(int cacheSize) {
+        // клиент MongoDB подключается лениво, а запросы подменены, поэтому адрес никуда не ведёт
+        Config config = ConfigFactory.load()
+                .withValue("mongo.connectionString", ConfigValueFactory.fromAnyRef("mongodb://localhost:1"))
+                .withValue("mongo.database", ConfigValueFactory.fromAnyRef("test_db"))
+                .withValue("mongo.collection", ConfigValueFactory.fromAnyRef("test_collection"))
+                .withValue("mongo.cache.maxSize", ConfigValueFactory.fromAnyRef(cacheSize))
+                .withValue("mongo.changeStream.enabled", ConfigValueFactory.fromAnyRef(false));
+        return new MongoDBClientEnricherImpl(config) {
+            @Override
+            protected List<Document> findNewestDocuments(String field, Set<String> values) {
+                queries.add(field);
+                if (failingFields.contains(field)) {
+                    throw new IllegalStateException("MongoDB is unavailable");
+                }
+                return groupsByField.getOrDefault(field, List.of());
+            }
+        };
+    }
+
+    private static Document group(String value, String document) {
+        return new Document("_id", value).append("document", Document.parse(document));
+    }
+
+    private static Message message(String value) {
+        return Message.builder().value(value).build();
+    }
+
+    private JsonNode jsonNode(Message message) throws Exception {
+        return message.getJsonNode() != null ? message.getJsonNode() : mapper.readTree(message.getValue());
+    }
+}
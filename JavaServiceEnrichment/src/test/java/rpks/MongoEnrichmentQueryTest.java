@@ -0,0 +1,82 @@
+package rpks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import ru.mai.lessons.rpks.impl.MongoDBClientEnricherImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Пакетный запрос документов для обогащения ($match/$sort/$group) на настоящей MongoDB.
+ */
+@Testcontainers
+class MongoEnrichmentQueryTest {
+    private static final String MONGO_TEST_DB = "enrichment_db";
+    private static final String MONGO_TEST_COLLECTION = "enrichment_collection";
+
+    @Container
+    private final MongoDBContainer mongoDBContainer = new MongoDBContainer(DockerImageName.parse("mongo:4.0.10"));
+
+    /**
+     * Проверяет, что по каждому значению берётся самый новый по _id документ, где значение поля - строка
+     */
+    @Test
+    void testBatchQueryKeepsNewestDocumentPerValue() {
+        try (MongoClient mongoClient = MongoClients.create(mongoDBContainer.getConnectionString())) {
+            MongoCollection<Document> collection = mongoClient.getDatabase(MONGO_TEST_DB).getCollection(MONGO_TEST_COLLECTION);
+            collection.insertMany(List.of(
+                    new Document("_id", new ObjectId(1, 0)).append("code", "a").append("version", 1),
+                    new Document("_id", new ObjectId(3, 0)).append("code", "a").append("version", 2),
+                    new Document("_id", new ObjectId(2, 0)).append("code", "b").append("version", 1),
+                    // самый новый, но значение поля - массив: в запросе $in он находится, но для обогащения не подходит
+                    new Document("_id", new ObjectId(4, 0)).append("code", List.of("a", "x")).append("version", 3)));
+        }
+
+        MongoDBClientEnricherImpl enricher = new MongoDBClientEnricherImpl(config());
+        try {
+            List<Message> messages = enricher.processing(List.of(message("{\"id\":1}"), message("{\"id\":2}")), new Rule[]{
+                    new Rule(1L, 1L, "a", "code", "a", "none"),
+                    new Rule(1L, 2L, "b", "code", "b", "none"),
+                    new Rule(1L, 3L, "c", "code", "c", "none")
+            });
+
+            assertEquals(2, messages.size());
+            for (Message message : messages) {
+                JsonNode jsonNode = message.getJsonNode();
+                assertEquals(2, jsonNode.get("a").get("version").asInt());
+                assertEquals(1, jsonNode.get("b").get("version").asInt());
+                assertEquals("none", jsonNode.get("c").asText());
+            }
+        } finally {
+            enricher.shutdown();
+        }
+    }
+
+    private Config config() {
+        return ConfigFactory.load()
+                .withValue("mongo.connectionString", ConfigValueFactory.fromAnyRef(mongoDBContainer.getConnectionString()))
+                .withValue("mongo.database", ConfigValueFactory.fromAnyRef(MONGO_TEST_DB))
+                .withValue("mongo.collection", ConfigValueFactory.fromAnyRef(MONGO_TEST_COLLECTION))
+                .withValue("mongo.changeStream.enabled", ConfigValueFactory.fromAnyRef(false));
+    }
+
+    private static Message message(String value) {
+        return Message.builder().value(value).build();
+    }
+}
@@ -0,0 +1,145 @@
+package ru.mai.lessons.rpks.benchmark;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mai.lessons.rpks.filter.FilterProgram;
+import ru.mai.lessons.rpks.impl.RuleProcessorImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность {@link RuleProcessorImpl} в зависимости от размера сообщения, числа правил,
+ * функции фильтрации, доли прошедших сообщений и способа разбора JSON.
+ * <p>
+ * Все правила относятся к одному фильтру и проверяют разные поля. Поля из правил лежат в конце сообщения,
+ * после полей-заполнителей, а непрошедшее сообщение нарушает одно случайное правило.
+ * Запуск: gradle jmh, выборочно - gradle jmh -PjmhArgs="RuleProcessorBenchmark -p ruleCount=20"; профилировщик gc добавляется задачей всегда.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleProcessorBenchmark {
+    private static final int MESSAGE_COUNT = 64;
+
+    @Param({"1", "10", "100"})
+    private int payloadKb;
+
+    @Param({"1", "20", "200"})
+    private int ruleCount;
+
+    @Param({"equals", "contains", "not_equals", "not_contains"})
+    private String function;
+
+    @Param({"0.0", "0.5", "1.0"})
+    private double passRatio;
+
+    @Param({"true", "false"})
+    private boolean streamingEvaluation;
+
+    private RuleProcessorImpl ruleProcessor;
+    private FilterProgram program;
+    private byte[][] messages;
+    private List<ConsumerRecord<String, byte[]>> records;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        ruleProcessor = new RuleProcessorImpl(streamingEvaluation);
+
+        Rule[] rules = new Rule[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            rules[i] = new Rule(1L, (long) i, "field" + i, function, ruleValue(i));
+        }
+        program = FilterProgram.compile(rules);
+
+        Random random = new Random(42);
+        messages = new byte[MESSAGE_COUNT][];
+        records = new ArrayList<>(MESSAGE_COUNT);
+        int passed = (int) Math.round(MESSAGE_COUNT * passRatio);
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            int failedRule = i < passed ? -1 : random.nextInt(ruleCount);
+            messages[i] = message(failedRule, random).getBytes(StandardCharsets.UTF_8);
+            records.add(new ConsumerRecord<>("test_topic_in", 0, i, null, messages[i]));
+        }
+    }
+
+    @Benchmark
+    public Message processMessage() {
+        byte[] rawValue = messages[next];
+        next = (next + 1) % MESSAGE_COUNT;
+        return ruleProcessor.processing(Message.builder().rawValue(rawValue).build(), program);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public List<Message> processBatch() {
+        return ruleProcessor.processing(records, program);
+    }
+
+    private String message(int failedRule, Random random) {
+        StringBuilder json = new StringBuilder("{");
+        int padding = 0;
+        while (json.length() < payloadKb * 1024) {
+            json.append("\"padding").append(padding++).append("\":{\"text\":\"");
+            for (int i = 0; i < 64; i++) {
+                json.append((char) ('a' + random.nextInt(26)));
+            }
+            json.append("\",\"number\":").append(random.nextInt()).append("},");
+        }
+
+        for (int i = 0; i < ruleCount; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("\"field").append(i).append("\":\"")
+                    .append(i == failedRule ? failedValue(i) : passedValue(i))
+                    .append('"');
+        }
+
+        return json.append('}').toString();
+    }
+
+    private String ruleValue(int rule) {
+        return function.startsWith("not_") ? "x" + rule : "v" + rule;
+    }
+
+    private String passedValue(int rule) {
+        switch (function) {
+            case "contains":
+                return "abc v" + rule + " def";
+            case "not_contains":
+                return "abc def";
+            default:
+                return "v" + rule;
+        }
+    }
+
+    private String failedValue(int rule) {
+        switch (function) {
+            case "contains":
+                return "abc def";
+            case "not_contains":
+                return "abc x" + rule + " def";
+            default:
+                return "x" + rule;
+        }
+    }
+}
@@ -2,6 +2,13 @@ package ru.mai.lessons.rpks;
 
 import ru.mai.lessons.rpks.model.Message;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface KafkaWriter {
     public void processing(Message message); // отправляет сообщения с filterState = true в выходной топик. Конфигурация берется из файла *.conf
+
+    public CompletableFuture<Void> send(Message message); // то же самое, но возвращает future, которое завершается после подтверждения записи сообщения во все выходные топики
+
+    public CompletableFuture<Void> send(List<Message> messages); // отправляет пачку сообщений, future завершается после подтверждения записи всех сообщений пачки
 }
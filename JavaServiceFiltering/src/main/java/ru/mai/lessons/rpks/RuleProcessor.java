@@ -1,8 +1,16 @@
 package ru.mai.lessons.rpks;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import ru.mai.lessons.rpks.filter.FilterProgram;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.util.List;
+
 public interface RuleProcessor {
-    public Message processing(Message message, Rule[] rules); // применяет правила фильтрации к сообщениям и устанавливает в них filterState значение true, если сообщение удовлетворяет условиям всех правил.
+    public Message processing(Message message, Rule[] rules); // применяет правила фильтрации к сообщениям и устанавливает в них filterState значение true, если сообщение удовлетворяет условиям всех правил. Правила компилируются при каждом вызове, поэтому метод - для разовых проверок и тестов; при обработке потока сообщений используется программа, скомпилированная при обновлении правил.
+
+    public Message processing(Message message, FilterProgram program); // то же самое, но по заранее скомпилированным правилам, полученным при обновлении правил из БД. Правила объединяются через И внутри каждого filter_id, filterState = true, если прошёл хотя бы один фильтр, id прошедших фильтров записываются в filterIds.
+
+    public List<Message> processing(Iterable<ConsumerRecord<String, byte[]>> records, FilterProgram program); // применяет скомпилированные правила сразу ко всем записям одного poll (или партиции) и возвращает только прошедшие сообщения с исходными байтами в rawValue, Message создаётся только для них.
 }
@@ -0,0 +1,27 @@
+package ru.mai.lessons.rpks.filter;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+@Getter
+public final class CompiledFilter {
+    private final long filterId;
+    private final CompiledRule[] rules;
+    private final int[] slots; // слоты всех полей, которые проверяет фильтр
+    private final int anchorSlot; // слот первого правила equals, по которому фильтр ищется в индексе, -1 если такого правила нет
+    private final CompiledRule anchorRule;
+
+    CompiledFilter(long filterId, CompiledRule[] rules, int[] slots, int anchorSlot, CompiledRule anchorRule) {
+        this.filterId = filterId;
+        this.rules = rules;
+        this.slots = slots;
+        this.anchorSlot = anchorSlot;
+        this.anchorRule = anchorRule;
+    }
+
+    @Override
+    public String toString() {
+        return filterId + "=" + Arrays.toString(rules);
+    }
+}
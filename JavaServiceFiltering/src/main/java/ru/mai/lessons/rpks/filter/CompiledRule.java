@@ -0,0 +1,71 @@
+package ru.mai.lessons.rpks.filter;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import ru.mai.lessons.rpks.model.Rule;
+
+@Slf4j
+@Getter
+public final class CompiledRule {
+    private final Rule rule;
+    private final String fieldName;
+    private final FieldPath path;
+    private final FilterFunction function;
+    private final ValueMatcher matcher;
+    private final boolean rejected; // правило из БД некорректно и никогда не выполняется
+
+    private CompiledRule(Rule rule, FieldPath path, FilterFunction function, ValueMatcher matcher, boolean rejected) {
+        this.rule = rule;
+        this.fieldName = rule.getFieldName();
+        this.path = path;
+        this.function = function;
+        this.matcher = matcher;
+        this.rejected = rejected;
+    }
+
+    // некорректное правило не останавливает обновление остальных: оно только не выполняется, и его фильтр не проходит ни одно сообщение
+    static CompiledRule compile(Rule rule) {
+        try {
+            return compileStrict(rule);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid rule {} is never satisfied: {}", rule, e.getMessage());
+            return new CompiledRule(rule, rejectedPath(rule.getFieldName()), null, fieldValue -> false, true);
+        }
+    }
+
+    private static CompiledRule compileStrict(Rule rule) {
+        if (rule.getFieldName() == null || rule.getFieldName().isEmpty()) {
+            throw new IllegalArgumentException("Field name must not be empty in rule " + rule.getRuleId());
+        }
+        if (rule.getFilterValue() == null) {
+            throw new IllegalArgumentException("Filter value must not be null in rule " + rule.getRuleId());
+        }
+
+        FieldPath path = FieldPath.parse(rule.getFieldName());
+        FilterFunction function = FilterFunction.of(rule.getFilterFunctionName());
+        return new CompiledRule(rule, path, function, function.compile(rule.getFilterValue()), false);
+    }
+
+    // путь некорректного правила нужен только для слота поля, значение по нему не проверяется
+    private static FieldPath rejectedPath(String fieldName) {
+        try {
+            return FieldPath.parse(fieldName);
+        } catch (IllegalArgumentException e) {
+            return FieldPath.literal(fieldName == null ? "" : fieldName);
+        }
+    }
+
+    public boolean test(String fieldValue) {
+        return matcher.matches(fieldValue);
+    }
+
+    public boolean test(FieldValue fieldValue) {
+        return matcher.matches(fieldValue);
+    }
+
+    @Override
+    public String toString() {
+        return fieldName + " " + (function == null ? rule.getFilterFunctionName() : function.getFunctionName()) + " " + rule.getFilterValue()
+                + (rejected ? " (rejected)" : "");
+    }
+}
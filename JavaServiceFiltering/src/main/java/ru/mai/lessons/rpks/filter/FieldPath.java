@@ -0,0 +1,78 @@
+package ru.mai.lessons.rpks.filter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+
+/**
+ * Путь к полю сообщения из field_name правила, разобранный один раз при компиляции правил.
+ * <p>
+ * Поддерживаются путь через точку ({@code payload.user.country}) и JSON Pointer ({@code /payload/user/country},
+ * с экранированием ~0 и ~1). Имя без точек, как и раньше, означает поле верхнего уровня.
+ * Сегменты пути адресуют поля объектов; если по пути встречается не объект, поле считается отсутствующим.
+ */
+@Getter
+public final class FieldPath {
+    private final String name;
+    private final String[] segments;
+    private final String pointer;
+
+    private FieldPath(String name, String[] segments) {
+        this.name = name;
+        this.segments = segments;
+
+        StringBuilder builder = new StringBuilder();
+        for (String segment : segments) {
+            builder.append('/').append(segment.replace("~", "~0").replace("/", "~1"));
+        }
+        this.pointer = builder.toString();
+    }
+
+    public static FieldPath parse(String fieldName) {
+        if (fieldName == null || fieldName.isEmpty()) {
+            throw new IllegalArgumentException("Field path must not be empty");
+        }
+
+        if (fieldName.charAt(0) == '/') {
+            String[] segments = fieldName.substring(1).split("/", -1);
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = segments[i].replace("~1", "/").replace("~0", "~");
+            }
+            return new FieldPath(fieldName, segments);
+        }
+
+        String[] segments = fieldName.split("\\.", -1);
+        for (String segment : segments) {
+            if (segment.isEmpty()) {
+                throw new IllegalArgumentException("Invalid field path: " + fieldName);
+            }
+        }
+
+        return new FieldPath(fieldName, segments);
+    }
+
+    // поле верхнего уровня с именем как есть, без разбора точек и JSON Pointer
+    static FieldPath literal(String fieldName) {
+        return new FieldPath(fieldName, new String[]{fieldName});
+    }
+
+    public String[] getSegments() {
+        return segments.clone();
+    }
+
+    public JsonNode resolve(JsonNode root) {
+        JsonNode node = root;
+        for (String segment : segments) {
+            if (node == null || !node.isObject()) {
+                return null;
+            }
+            node = node.get(segment);
+        }
+
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
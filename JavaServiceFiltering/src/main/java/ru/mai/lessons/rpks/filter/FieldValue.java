@@ -0,0 +1,178 @@
+package ru.mai.lessons.rpks.filter;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+
+/**
+ * Значение поля сообщения, которое проверяют правила. Переиспользуется {@link FilterEvaluator} для всех полей и сообщений.
+ * <p>
+ * Числовой токен JSON читается как число без форматирования в текст, а текст (такой же, как у JsonNode.asText())
+ * строится только если его запросило правило. Строка, записанная как число, для числовых правил тоже считается числом.
+ * Целые числа в пределах long хранятся как long, чтобы идентификаторы и метки времени больше 2^53 сравнивались точно.
+ */
+public final class FieldValue {
+    private JsonNode node;
+    private Number number;
+    private String text;
+    private boolean parsed;
+    private double numberValue;
+    private long longValue;
+    private boolean integral;
+    private boolean numeric;
+
+    FieldValue() {
+    }
+
+    static FieldValue of(String text) {
+        FieldValue fieldValue = new FieldValue();
+        fieldValue.setText(text);
+        return fieldValue;
+    }
+
+    public String text() {
+        if (text == null) {
+            text = node != null ? node.asText()
+                    : number instanceof Double ? String.valueOf(number.doubleValue())
+                    : number.toString();
+        }
+
+        return text;
+    }
+
+    public boolean isNumber() {
+        if (!parsed) {
+            parsed = true;
+            if (number instanceof Integer || number instanceof Long) {
+                setLong(number.longValue());
+            } else if (number != null) {
+                setNumber(number.doubleValue());
+            } else if (node != null && node.isIntegralNumber() && node.canConvertToLong()) {
+                setLong(node.longValue());
+            } else if (node != null && node.isNumber()) {
+                setNumber(node.doubleValue());
+            } else {
+                parse(text());
+            }
+        }
+
+        return numeric;
+    }
+
+    public double number() {
+        return isNumber() ? numberValue : Double.NaN;
+    }
+
+    /**
+     * Сравнивает числовые значения без потери точности: два целых - как long, целое с дробным - точно,
+     * без приведения long к double. Оба значения должны быть числами ({@link #isNumber()}).
+     */
+    public int compareNumber(FieldValue other) {
+        if (integral && other.integral) {
+            return Long.compare(longValue, other.longValue);
+        }
+        if (integral) {
+            return compare(longValue, other.numberValue);
+        }
+        if (other.integral) {
+            return -compare(other.longValue, numberValue);
+        }
+        return numberValue < other.numberValue ? -1 : numberValue > other.numberValue ? 1 : 0;
+    }
+
+    void setText(String text) {
+        reset();
+        this.text = text;
+    }
+
+    void setNode(JsonNode node) {
+        reset();
+        this.node = node;
+    }
+
+    // читает значение текущего токена, вложенные объекты и массивы пропускаются и дают пустую строку
+    void read(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NUMBER_INT:
+                reset();
+                number = parser.getNumberValue();
+                break;
+            case VALUE_NUMBER_FLOAT:
+                reset();
+                number = parser.getDoubleValue();
+                break;
+            case VALUE_STRING:
+                setText(parser.getText());
+                break;
+            case VALUE_TRUE:
+                setText("true");
+                break;
+            case VALUE_FALSE:
+                setText("false");
+                break;
+            case VALUE_NULL:
+                setText("null");
+                break;
+            default:
+                parser.skipChildren();
+                setText("");
+        }
+    }
+
+    // разбирает число из значения правила или строкового поля, NaN - если это не конечное число
+    static double parseNumber(String value) {
+        try {
+            double parsed = Double.parseDouble(value.trim());
+            return Double.isFinite(parsed) ? parsed : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private void parse(String value) {
+        try {
+            setLong(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            setNumber(parseNumber(value));
+        }
+    }
+
+    private void setNumber(double value) {
+        numeric = !Double.isNaN(value);
+        numberValue = value;
+        integral = false;
+    }
+
+    private void setLong(long value) {
+        numeric = true;
+        numberValue = value;
+        longValue = value;
+        integral = true;
+    }
+
+    // точное сравнение long с конечным double: целая часть double сравнивается как long, затем дробная
+    private static int compare(long value, double other) {
+        if (other >= 0x1p63) {
+            return -1;
+        }
+        if (other < -0x1p63) {
+            return 1;
+        }
+
+        long whole = (long) other;
+        if (value != whole) {
+            return Long.compare(value, whole);
+        }
+        double fraction = other - whole;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    private void reset() {
+        node = null;
+        number = null;
+        text = null;
+        parsed = false;
+    }
+}
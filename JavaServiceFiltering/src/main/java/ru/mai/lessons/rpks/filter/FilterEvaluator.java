@@ -0,0 +1,389 @@
+package ru.mai.lessons.rpks.filter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import ru.mai.lessons.rpks.metrics.FilterMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Проверяет сообщение сразу по всем фильтрам {@link FilterProgram} и возвращает фильтры, условиям которых оно удовлетворяет.
+ * <p>
+ * В потоковом режиме JSON читается через {@link JsonParser} без построения дерева: разбор останавливается,
+ * как только найдены все поля из правил или ни один фильтр уже не может пройти, а содержимое полей,
+ * которых нет в правилах, пропускается.
+ * <p>
+ * Для каждого правила и поля ведётся статистика: сколько фильтров оно отсеяло и сколько стоила проверка
+ * (время замеряется на каждом {@value #SAMPLE_RATE}-м сообщении). Раз в reorderInterval сообщений правила внутри поля,
+ * а в режиме дерева и сами поля, переупорядочиваются по возрастанию стоимости на один отсеянный фильтр,
+ * чтобы дешёвые и избирательные проверки выполнялись первыми. Выбранный порядок публикуется в {@link FilterMetrics}.
+ * <p>
+ * Экземпляр не потокобезопасен: каждый поток обработки должен использовать свой.
+ */
+public final class FilterEvaluator {
+    static final int SAMPLE_RATE = 64;
+
+    private final JsonFactory jsonFactory;
+    private final int reorderInterval;
+    private final FieldValue fieldValue = new FieldValue();
+
+    private FilterProgram program;
+    private int stamp;
+    private int[] seenStamp = new int[0];
+    private int[] killedStamp = new int[0];
+    private int[] matchedStamp = new int[0];
+    private int[] anchorKilledStamp = new int[0];
+    private int[] anchorKilledCount = new int[0];
+    private int[] passedFilters = new int[0];
+    private int remainingFields;
+    private int aliveFilters;
+
+    private FilterProgram orderedProgram;
+    private int[] slotOrder;
+    private FilterProgram.RuleEntry[][] rulesBySlot;
+    private long[] slotVisits;
+    private long[] slotKills;
+    private long[] slotNanos;
+    private long[] slotSamples;
+    private long[] ruleEvaluations;
+    private long[] ruleRejects;
+    private long[] ruleNanos;
+    private long[] ruleSamples;
+    private long evaluatedRecords;
+    private boolean sampled;
+
+    public FilterEvaluator(JsonFactory jsonFactory) {
+        this(jsonFactory, 0);
+    }
+
+    // reorderInterval - через сколько сообщений пересчитывать порядок правил, 0 - не пересчитывать
+    public FilterEvaluator(JsonFactory jsonFactory, int reorderInterval) {
+        this.jsonFactory = jsonFactory;
+        this.reorderInterval = reorderInterval;
+    }
+
+    public int evaluate(FilterProgram program, String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return evaluate(program, parser);
+        }
+    }
+
+    public int evaluate(FilterProgram program, byte[] json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return evaluate(program, parser);
+        }
+    }
+
+    public int evaluate(FilterProgram program, JsonNode jsonNode) {
+        begin(program);
+        if (program.isEmpty() || jsonNode == null) {
+            return 0;
+        }
+
+        for (int slot : slotOrder) {
+            JsonNode fieldValue = program.fieldPath(slot).resolve(jsonNode);
+            if (fieldValue == null) {
+                continue;
+            }
+            this.fieldValue.setNode(fieldValue);
+            if (onValue(slot, this.fieldValue)) {
+                break;
+            }
+        }
+
+        return finish();
+    }
+
+    /**
+     * Текущий порядок проверки: поля в порядке обхода в режиме дерева, внутри поля - правила в порядке проверки.
+     */
+    public String[] getRuleOrder() {
+        if (orderedProgram == null) {
+            return new String[0];
+        }
+
+        String[] order = new String[slotOrder.length];
+        for (int i = 0; i < slotOrder.length; i++) {
+            int slot = slotOrder[i];
+            StringBuilder description = new StringBuilder(orderedProgram.fieldPath(slot).getName())
+                    .append(" (").append(stats(slotKills[slot], slotVisits[slot], slotNanos[slot], slotSamples[slot])).append(")");
+            for (FilterProgram.RuleEntry entry : rulesBySlot[slot]) {
+                int id = entry.id;
+                description.append("; ").append(entry.rule)
+                        .append(" (").append(stats(ruleRejects[id], ruleEvaluations[id], ruleNanos[id], ruleSamples[id])).append(")");
+            }
+            order[i] = description.toString();
+        }
+
+        return order;
+    }
+
+    /**
+     * Индексы фильтров (в {@link FilterProgram#getFilters()}), которые прошло последнее сообщение.
+     * Заполнены первые N элементов, где N - результат последнего вызова evaluate.
+     */
+    public int[] getPassedFilters() {
+        return passedFilters;
+    }
+
+    int evaluate(FilterProgram program, JsonParser parser) throws IOException {
+        begin(program);
+        if (program.isEmpty() || parser.nextToken() != JsonToken.START_OBJECT) {
+            return 0;
+        }
+
+        readObject(parser, program.pathRoot());
+        return finish();
+    }
+
+    // читает поля объекта, спускаясь только в ветки из дерева путей; возвращает true, если дальше сообщение можно не читать
+    private boolean readObject(JsonParser parser, FilterProgram.PathNode node) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            FilterProgram.PathNode child = node.child(parser.currentName());
+            JsonToken token = parser.nextToken();
+            if (child == null) {
+                parser.skipChildren();
+                continue;
+            }
+
+            int slot = child.slot();
+            boolean unread = slot >= 0 && seenStamp[slot] != stamp;
+            if (token == JsonToken.START_OBJECT && child.hasChildren()) {
+                if (unread) {
+                    fieldValue.setText("");
+                    if (onValue(slot, fieldValue)) {
+                        return true;
+                    }
+                }
+                if (readObject(parser, child)) {
+                    return true;
+                }
+            } else if (unread) {
+                fieldValue.read(parser, token);
+                if (onValue(slot, fieldValue)) {
+                    return true;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return false;
+    }
+
+    private void begin(FilterProgram program) {
+        this.program = program;
+        if (program != orderedProgram) {
+            resetOrder(program);
+        }
+        sampled = evaluatedRecords++ % SAMPLE_RATE == 0;
+        if (reorderInterval > 0 && evaluatedRecords % reorderInterval == 0) {
+            reorder();
+        }
+
+        int fieldCount = program.getFieldCount();
+        int filterCount = program.getFilterCount();
+        if (seenStamp.length < fieldCount) {
+            seenStamp = new int[fieldCount];
+            anchorKilledStamp = new int[fieldCount];
+            anchorKilledCount = new int[fieldCount];
+        }
+        if (killedStamp.length < filterCount) {
+            killedStamp = new int[filterCount];
+            matchedStamp = new int[filterCount];
+            passedFilters = new int[filterCount];
+        }
+
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seenStamp, 0);
+            Arrays.fill(anchorKilledStamp, 0);
+            Arrays.fill(killedStamp, 0);
+            Arrays.fill(matchedStamp, 0);
+            stamp = 1;
+        }
+
+        remainingFields = fieldCount;
+        aliveFilters = filterCount;
+    }
+
+    // возвращает true, если дальше сообщение можно не читать
+    private boolean onValue(int slot, FieldValue fieldValue) {
+        long start = sampled ? System.nanoTime() : 0L;
+        seenStamp[slot] = stamp;
+        remainingFields--;
+        slotVisits[slot]++;
+
+        int anchored = program.anchoredCount(slot);
+        if (anchored > 0) {
+            int aliveBefore = anchored - (anchorKilledStamp[slot] == stamp ? anchorKilledCount[slot] : 0);
+            int matched = 0;
+            int[] candidates = program.candidates(slot, fieldValue.text());
+            if (candidates != null) {
+                for (int filter : candidates) {
+                    if (killedStamp[filter] != stamp) {
+                        matchedStamp[filter] = stamp;
+                        matched++;
+                    }
+                }
+            }
+            aliveFilters -= aliveBefore - matched;
+            slotKills[slot] += aliveBefore - matched;
+        }
+
+        for (FilterProgram.RuleEntry entry : rulesBySlot[slot]) {
+            if (aliveFilters == 0) {
+                break;
+            }
+            if (!isDead(entry.filter) && !test(entry, fieldValue)) {
+                ruleRejects[entry.id]++;
+                slotKills[slot]++;
+                kill(entry.filter);
+            }
+        }
+
+        if (sampled) {
+            slotNanos[slot] += System.nanoTime() - start;
+            slotSamples[slot]++;
+        }
+
+        return aliveFilters == 0 || remainingFields == 0;
+    }
+
+    private boolean test(FilterProgram.RuleEntry entry, FieldValue fieldValue) {
+        ruleEvaluations[entry.id]++;
+        if (!sampled) {
+            return entry.rule.test(fieldValue);
+        }
+
+        long start = System.nanoTime();
+        boolean passed = entry.rule.test(fieldValue);
+        ruleNanos[entry.id] += System.nanoTime() - start;
+        ruleSamples[entry.id]++;
+        return passed;
+    }
+
+    private boolean isDead(int filter) {
+        if (killedStamp[filter] == stamp) {
+            return true;
+        }
+
+        int anchorSlot = program.anchorSlot(filter);
+        return anchorSlot >= 0 && seenStamp[anchorSlot] == stamp && matchedStamp[filter] != stamp;
+    }
+
+    private void kill(int filter) {
+        killedStamp[filter] = stamp;
+        aliveFilters--;
+
+        int anchorSlot = program.anchorSlot(filter);
+        if (anchorSlot >= 0 && seenStamp[anchorSlot] != stamp) {
+            if (anchorKilledStamp[anchorSlot] != stamp) {
+                anchorKilledStamp[anchorSlot] = stamp;
+                anchorKilledCount[anchorSlot] = 0;
+            }
+            anchorKilledCount[anchorSlot]++;
+        }
+    }
+
+    private int finish() {
+        if (aliveFilters == 0) {
+            return 0;
+        }
+
+        int passed = 0;
+        for (int filter = 0; filter < program.getFilterCount(); filter++) {
+            if (!isDead(filter) && allFieldsSeen(filter)) {
+                passedFilters[passed++] = filter;
+            }
+        }
+
+        return passed;
+    }
+
+    private boolean allFieldsSeen(int filter) {
+        for (int slot : program.filterSlots(filter)) {
+            if (seenStamp[slot] != stamp) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void resetOrder(FilterProgram program) {
+        int fieldCount = program.getFieldCount();
+        int entryCount = program.ruleEntryCount();
+        orderedProgram = program;
+        slotOrder = new int[fieldCount];
+        rulesBySlot = new FilterProgram.RuleEntry[fieldCount][];
+        for (int slot = 0; slot < fieldCount; slot++) {
+            slotOrder[slot] = slot;
+            rulesBySlot[slot] = program.rulesForSlot(slot).clone();
+        }
+
+        slotVisits = new long[fieldCount];
+        slotKills = new long[fieldCount];
+        slotNanos = new long[fieldCount];
+        slotSamples = new long[fieldCount];
+        ruleEvaluations = new long[entryCount];
+        ruleRejects = new long[entryCount];
+        ruleNanos = new long[entryCount];
+        ruleSamples = new long[entryCount];
+        evaluatedRecords = 0;
+    }
+
+    // сортировки устойчивые: без статистики сохраняется порядок из правил
+    private void reorder() {
+        for (FilterProgram.RuleEntry[] entries : rulesBySlot) {
+            Arrays.sort(entries, Comparator.comparingDouble(entry ->
+                    rank(ruleRejects[entry.id], ruleEvaluations[entry.id], ruleNanos[entry.id], ruleSamples[entry.id])));
+        }
+
+        List<Integer> slots = new ArrayList<>(slotOrder.length);
+        for (int slot = 0; slot < slotOrder.length; slot++) {
+            slots.add(slot);
+        }
+        slots.sort(Comparator.comparingDouble(slot ->
+                rank(slotKills[slot], slotVisits[slot], slotNanos[slot], slotSamples[slot])));
+        for (int i = 0; i < slotOrder.length; i++) {
+            slotOrder[i] = slots.get(i);
+        }
+
+        FilterMetrics.getInstance().recordReorder(getRuleOrder(), reorderInterval);
+
+        // старая статистика затухает, чтобы порядок следовал за изменением потока сообщений
+        decay(slotVisits, slotKills, slotNanos, slotSamples, ruleEvaluations, ruleRejects, ruleNanos, ruleSamples);
+    }
+
+    // средняя стоимость проверки на один отсеянный фильтр, меньше - раньше
+    private static double rank(long rejects, long evaluations, long nanos, long samples) {
+        if (evaluations == 0) {
+            return Double.MAX_VALUE;
+        }
+
+        double cost = samples == 0 ? 1.0 : Math.max(1.0, (double) nanos / samples);
+        double rejectRate = Math.max((double) rejects / evaluations, 1e-6);
+        return cost / rejectRate;
+    }
+
+    private static String stats(long rejects, long evaluations, long nanos, long samples) {
+        return String.format(Locale.ROOT, "reject %.1f%%, %d ns",
+                evaluations == 0 ? 0.0 : 100.0 * rejects / evaluations,
+                samples == 0 ? 0L : nanos / samples);
+    }
+
+    private static void decay(long[]... counters) {
+        for (long[] values : counters) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] >>= 1;
+            }
+        }
+    }
+}
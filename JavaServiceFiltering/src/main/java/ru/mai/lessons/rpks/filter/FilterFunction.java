@@ -0,0 +1,156 @@
+package ru.mai.lessons.rpks.filter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+public enum FilterFunction {
+    EQUALS("equals") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            return filterValue::equals;
+        }
+    },
+    CONTAINS("contains") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            return fieldValue -> fieldValue.contains(filterValue);
+        }
+    },
+    NOT_EQUALS("not_equals") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            return fieldValue -> !filterValue.equals(fieldValue);
+        }
+    },
+    NOT_CONTAINS("not_contains") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            return fieldValue -> !fieldValue.contains(filterValue);
+        }
+    },
+    GT("gt") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            FieldValue bound = number(filterValue);
+            return numeric(value -> value.compareNumber(bound) > 0);
+        }
+    },
+    LT("lt") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            FieldValue bound = number(filterValue);
+            return numeric(value -> value.compareNumber(bound) < 0);
+        }
+    },
+    // значение правила - "min,max", границы включаются
+    BETWEEN("between") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            String[] bounds = filterValue.split(",", -1);
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("Invalid range, expected min,max: " + filterValue);
+            }
+            FieldValue min = number(bounds[0]);
+            FieldValue max = number(bounds[1]);
+            if (min.compareNumber(max) > 0) {
+                throw new IllegalArgumentException("Invalid range, min is greater than max: " + filterValue);
+            }
+            return numeric(value -> value.compareNumber(min) >= 0 && value.compareNumber(max) <= 0);
+        }
+    },
+    // значение правила - регулярное выражение, которому должно целиком соответствовать значение поля
+    MATCHES("matches") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            Pattern pattern = Pattern.compile(filterValue);
+            return fieldValue -> pattern.matcher(fieldValue).matches();
+        }
+    },
+    // значение правила - список значений через запятую
+    IN("in") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            Set<String> values = valueSet(filterValue);
+            return values::contains;
+        }
+    },
+    NOT_IN("not_in") {
+        @Override
+        ValueMatcher compile(String filterValue) {
+            Set<String> values = valueSet(filterValue);
+            return fieldValue -> !values.contains(fieldValue);
+        }
+    };
+
+    private static final Map<String, FilterFunction> BY_NAME = new HashMap<>();
+
+    static {
+        for (FilterFunction function : values()) {
+            BY_NAME.put(function.functionName, function);
+        }
+    }
+
+    private final String functionName;
+
+    FilterFunction(String functionName) {
+        this.functionName = functionName;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    abstract ValueMatcher compile(String filterValue);
+
+    // граница разбирается при компиляции и дальше только читается потоками обработки
+    private static FieldValue number(String value) {
+        FieldValue number = FieldValue.of(value);
+        if (!number.isNumber()) {
+            throw new IllegalArgumentException("Invalid number: " + value);
+        }
+
+        return number;
+    }
+
+    private static Set<String> valueSet(String value) {
+        Set<String> values = new HashSet<>();
+        for (String item : value.split(",")) {
+            values.add(item.trim());
+        }
+
+        return values;
+    }
+
+    // сообщение, в котором поле не число, числовое правило не проходит
+    private static ValueMatcher numeric(Predicate<FieldValue> predicate) {
+        return new ValueMatcher() {
+            @Override
+            public boolean matches(String fieldValue) {
+                return matches(FieldValue.of(fieldValue));
+            }
+
+            @Override
+            public boolean matches(FieldValue fieldValue) {
+                return fieldValue.isNumber() && predicate.test(fieldValue);
+            }
+        };
+    }
+
+    public static FilterFunction of(String functionName) {
+        if (functionName == null) {
+            throw new IllegalArgumentException("Filter function must not be null");
+        }
+
+        FilterFunction function = BY_NAME.get(functionName.toLowerCase(Locale.ROOT));
+        if (function == null) {
+            throw new IllegalArgumentException("Invalid filter function: " + functionName);
+        }
+
+        return function;
+    }
+}
@@ -0,0 +1,219 @@
+package ru.mai.lessons.rpks.filter;
+
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Неизменяемый набор правил фильтрации, скомпилированный при обновлении правил из БД.
+ * Имена функций разбираются один раз, поэтому при обработке сообщений выполняются только готовые предикаты.
+ * <p>
+ * Правила группируются по filter_id: внутри фильтра правила объединяются через И, фильтры проверяются независимо
+ * за один разбор сообщения. Каждое поле из правил получает свой слот и извлекается один раз для всех фильтров,
+ * а правила equals индексируются по паре (поле, значение), чтобы проверять только подходящие фильтры.
+ * <p>
+ * Пути к вложенным полям ({@link FieldPath}) собираются в дерево сегментов, по которому потоковый разбор
+ * спускается только в те ветки документа, где есть поля из правил.
+ */
+public final class FilterProgram {
+    public static final FilterProgram EMPTY = compile(new Rule[0]);
+
+    private final Rule[] rules;
+    private final CompiledFilter[] filters;
+    private final Map<String, Integer> fieldSlots;
+    private final FieldPath[] fieldPaths;
+    private final PathNode pathRoot = new PathNode();
+    private final RuleEntry[][] rulesBySlot;
+    private final int ruleEntryCount;
+    private final int[] anchoredCount;
+    private final Map<String, int[]>[] equalsIndex;
+
+    private FilterProgram(Rule[] rules, CompiledFilter[] filters, Map<String, Integer> fieldSlots) {
+        this.rules = rules;
+        this.filters = filters;
+        this.fieldSlots = fieldSlots;
+        this.fieldPaths = new FieldPath[fieldSlots.size()];
+        for (CompiledFilter filter : filters) {
+            for (CompiledRule rule : filter.getRules()) {
+                int slot = fieldSlots.get(rule.getPath().getPointer());
+                if (fieldPaths[slot] == null) {
+                    fieldPaths[slot] = rule.getPath();
+                    pathRoot.add(rule.getPath().getSegments(), slot);
+                }
+            }
+        }
+
+        List<List<RuleEntry>> entries = new ArrayList<>();
+        List<Map<String, List<Integer>>> anchors = new ArrayList<>();
+        for (int slot = 0; slot < fieldPaths.length; slot++) {
+            entries.add(new ArrayList<>());
+            anchors.add(new HashMap<>());
+        }
+
+        this.anchoredCount = new int[fieldPaths.length];
+        int entryCount = 0;
+        for (int filter = 0; filter < filters.length; filter++) {
+            CompiledFilter compiledFilter = filters[filter];
+            for (CompiledRule rule : compiledFilter.getRules()) {
+                if (rule == compiledFilter.getAnchorRule()) {
+                    anchors.get(compiledFilter.getAnchorSlot())
+                            .computeIfAbsent(rule.getRule().getFilterValue(), value -> new ArrayList<>())
+                            .add(filter);
+                    anchoredCount[compiledFilter.getAnchorSlot()]++;
+                } else {
+                    entries.get(fieldSlots.get(rule.getPath().getPointer())).add(new RuleEntry(entryCount++, filter, rule));
+                }
+            }
+        }
+
+        this.ruleEntryCount = entryCount;
+        this.rulesBySlot = new RuleEntry[fieldPaths.length][];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Map<String, int[]>[] index = new Map[fieldPaths.length];
+        for (int slot = 0; slot < fieldPaths.length; slot++) {
+            rulesBySlot[slot] = entries.get(slot).toArray(new RuleEntry[0]);
+            if (anchoredCount[slot] > 0) {
+                Map<String, int[]> slotIndex = new HashMap<>();
+                anchors.get(slot).forEach((value, filterIndexes) ->
+                        slotIndex.put(value, filterIndexes.stream().mapToInt(Integer::intValue).toArray()));
+                index[slot] = slotIndex;
+            }
+        }
+        this.equalsIndex = index;
+    }
+
+    public static FilterProgram compile(Rule[] rules) {
+        if (rules == null) {
+            rules = new Rule[0];
+        }
+
+        Map<Long, List<CompiledRule>> rulesByFilter = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            rulesByFilter.computeIfAbsent(rule.getFilterId(), filterId -> new ArrayList<>())
+                    .add(CompiledRule.compile(rule));
+        }
+
+        Map<String, Integer> fieldSlots = new HashMap<>();
+        List<CompiledFilter> filters = new ArrayList<>();
+        rulesByFilter.forEach((filterId, filterRules) -> {
+            int[] slots = filterRules.stream()
+                    .mapToInt(rule -> fieldSlots.computeIfAbsent(rule.getPath().getPointer(), pointer -> fieldSlots.size()))
+                    .distinct()
+                    .toArray();
+            CompiledRule anchorRule = filterRules.stream()
+                    .filter(rule -> rule.getFunction() == FilterFunction.EQUALS)
+                    .findFirst()
+                    .orElse(null);
+            int anchorSlot = anchorRule == null ? -1 : fieldSlots.get(anchorRule.getPath().getPointer());
+
+            filters.add(new CompiledFilter(filterId == null ? 0L : filterId,
+                    filterRules.toArray(new CompiledRule[0]), slots, anchorSlot, anchorRule));
+        });
+
+        return new FilterProgram(rules.clone(), filters.toArray(new CompiledFilter[0]), fieldSlots);
+    }
+
+    public boolean isEmpty() {
+        return filters.length == 0;
+    }
+
+    public Rule[] getRules() {
+        return rules.clone();
+    }
+
+    public CompiledFilter[] getFilters() {
+        return filters.clone();
+    }
+
+    public int getFilterCount() {
+        return filters.length;
+    }
+
+    public int getFieldCount() {
+        return fieldPaths.length;
+    }
+
+    public long getFilterId(int filter) {
+        return filters[filter].getFilterId();
+    }
+
+    FieldPath fieldPath(int slot) {
+        return fieldPaths[slot];
+    }
+
+    PathNode pathRoot() {
+        return pathRoot;
+    }
+
+    int[] filterSlots(int filter) {
+        return filters[filter].getSlots();
+    }
+
+    int anchorSlot(int filter) {
+        return filters[filter].getAnchorSlot();
+    }
+
+    int anchoredCount(int slot) {
+        return anchoredCount[slot];
+    }
+
+    int[] candidates(int slot, String fieldValue) {
+        return equalsIndex[slot].get(fieldValue);
+    }
+
+    RuleEntry[] rulesForSlot(int slot) {
+        return rulesBySlot[slot];
+    }
+
+    int ruleEntryCount() {
+        return ruleEntryCount;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(filters);
+    }
+
+    // узел дерева путей: slot >= 0, если на этом узле заканчивается путь из правил
+    static final class PathNode {
+        private final Map<String, PathNode> children = new HashMap<>();
+        private int slot = -1;
+
+        private void add(String[] segments, int slot) {
+            PathNode node = this;
+            for (String segment : segments) {
+                node = node.children.computeIfAbsent(segment, name -> new PathNode());
+            }
+            node.slot = slot;
+        }
+
+        PathNode child(String name) {
+            return children.get(name);
+        }
+
+        boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        int slot() {
+            return slot;
+        }
+    }
+
+    static final class RuleEntry {
+        final int id;
+        final int filter;
+        final CompiledRule rule;
+
+        RuleEntry(int id, int filter, CompiledRule rule) {
+            this.id = id;
+            this.filter = filter;
+            this.rule = rule;
+        }
+    }
+}
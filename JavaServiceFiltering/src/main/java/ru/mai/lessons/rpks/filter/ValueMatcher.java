@@ -0,0 +1,10 @@
+package ru.mai.lessons.rpks.filter;
+
+@FunctionalInterface
+public interface ValueMatcher {
+    public boolean matches(String fieldValue); // проверяет текстовое значение поля сообщения на соответствие скомпилированному правилу
+
+    public default boolean matches(FieldValue fieldValue) { // проверяет значение поля, прочитанное из JSON; числовые правила берут число без перевода в текст
+        return matches(fieldValue.text());
+    }
+}
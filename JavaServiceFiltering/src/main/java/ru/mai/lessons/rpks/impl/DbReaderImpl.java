@@ -1,11 +1,11 @@
 package ru.mai.lessons.rpks.impl;
 
 import com.typesafe.config.Config;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
 import ru.mai.lessons.rpks.DbReader;
 import ru.mai.lessons.rpks.config.DbConfig;
+import ru.mai.lessons.rpks.filter.FilterProgram;
 import ru.mai.lessons.rpks.model.Rule;
 
 import java.util.Arrays;
@@ -15,6 +15,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.jooq.impl.DSL.field;
 import static org.jooq.impl.DSL.table;
@@ -24,17 +25,14 @@ public class DbReaderImpl implements DbReader {
     private final DSLContext dslContext;
     private final long updateIntervalSec;
     private final CountDownLatch latch = new CountDownLatch(1);
+    private final AtomicReference<FilterProgram> program = new AtomicReference<>(FilterProgram.EMPTY);
     private ScheduledExecutorService scheduler;
 
-    @Getter
-    private Rule[] rules;
-
     public DbReaderImpl(Config config) {
         log.info("Start connecting to database");
         DbConfig dbConfig = new DbConfig(config);
         this.dslContext = dbConfig.getDslContext();
         this.updateIntervalSec = config.getLong("application.updateIntervalSec");
-        this.rules = new Rule[0];
         log.info("Database connection done");
     }
 
@@ -48,7 +46,7 @@ public class DbReaderImpl implements DbReader {
                 return new Rule[0];
             }
 
-            rules = ruleList.toArray(new Rule[0]);
+            Rule[] rules = ruleList.toArray(new Rule[0]);
             log.info("Successfully read rules from database");
             return rules;
 
@@ -82,8 +80,7 @@ public class DbReaderImpl implements DbReader {
             log.info("Updating rules from DB");
             Rule[] updatedRules = readRulesFromDB();
             if (updatedRules.length > 0) {
-                rules = updatedRules;
-                log.info("Updated rules successfully: {}", Arrays.toString(rules));
+                refreshProgram(updatedRules);
             } else {
                 log.warn("Rules not found in db");
             }
@@ -94,6 +91,20 @@ public class DbReaderImpl implements DbReader {
         return latch;
     }
 
+    // некорректные правила компилируются в невыполнимые, поэтому одна ошибочная строка не блокирует обновление остальных
+    private void refreshProgram(Rule[] updatedRules) {
+        program.set(FilterProgram.compile(updatedRules));
+        log.info("Updated rules successfully: {}", Arrays.toString(updatedRules));
+    }
+
+    public Rule[] getRules() {
+        return program.get().getRules();
+    }
+
+    public FilterProgram getProgram() {
+        return program.get();
+    }
+
     private void schedulePeriodicUpdates(Runnable updateRunnable) {
         scheduler.scheduleAtFixedRate(updateRunnable, 0, updateIntervalSec, TimeUnit.SECONDS);
     }
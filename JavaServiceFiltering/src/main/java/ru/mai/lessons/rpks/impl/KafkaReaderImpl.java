@@ -1,33 +1,54 @@
 package ru.mai.lessons.rpks.impl;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 
 import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import ru.mai.lessons.rpks.KafkaReader;
 import ru.mai.lessons.rpks.KafkaWriter;
 import ru.mai.lessons.rpks.RuleProcessor;
+import ru.mai.lessons.rpks.filter.FilterProgram;
 import ru.mai.lessons.rpks.model.Message;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class KafkaReaderImpl implements KafkaReader {
     private final Config config;
-    private final KafkaConsumer<String, String> kafkaConsumer;
+    private final KafkaConsumer<String, byte[]> kafkaConsumer;
     private final KafkaWriter kafkaWriter;
     private final RuleProcessor ruleProcessor;
+    private final boolean byteMode;
+    private final PartitionWorkerPool workerPool;
 
     public KafkaReaderImpl(Config config) {
         this.config = config;
+        this.byteMode = config.getBoolean("application.byteMode");
         this.kafkaWriter = new KafkaWriterImpl(config);
-        this.ruleProcessor = new RuleProcessorImpl();
+        this.ruleProcessor = new RuleProcessorImpl(config);
+
+        int workerThreads = config.getInt("application.workerThreads");
+        this.workerPool = workerThreads > 0
+                ? new PartitionWorkerPool(workerThreads, () -> new RuleProcessorImpl(config), this::handle)
+                : null;
         this.kafkaConsumer = new KafkaConsumer<>(getKafkaProperties());
 
         String topic = config.getString("kafka.consumer.topic.in");
-        this.kafkaConsumer.subscribe(Collections.singletonList(topic));
+        if (workerPool == null) {
+            this.kafkaConsumer.subscribe(Collections.singletonList(topic));
+        } else {
+            this.kafkaConsumer.subscribe(Collections.singletonList(topic), new CommitOnRevokeListener(kafkaConsumer, workerPool));
+        }
 
         log.info("KafkaReader started");
     }
@@ -38,9 +59,11 @@ public class KafkaReaderImpl implements KafkaReader {
         properties.put("bootstrap.servers", config.getString("kafka.consumer.bootstrap.servers"));
         properties.put("group.id", config.getString("kafka.consumer.group.id"));
         properties.put("key.deserializer", StringDeserializer.class.getName());
-        properties.put("value.deserializer", StringDeserializer.class.getName());
+        properties.put("value.deserializer", ByteArrayDeserializer.class.getName());
         properties.put("auto.offset.reset", config.getString("kafka.consumer.auto.offset.reset"));
-
+        if (workerPool != null) {
+            properties.put("enable.auto.commit", "false");
+        }
 
         return properties;
     }
@@ -48,29 +71,22 @@ public class KafkaReaderImpl implements KafkaReader {
     @Override
     public void processing() {
         log.info("Start processing method in KafkaReaderImpl");
-        boolean isTrue = true;
         DbReaderImpl dbReader = new DbReaderImpl(config);
         try {
             dbReader.startPeriodicRuleUpdate().await();
-            while (isTrue) {
-                var records = kafkaConsumer.poll(Duration.ofMillis(100));
-                log.info("Received {} records from Kafka", records.count());
-                for (var r : records) {
-                    String message = r.value();
-                    var rules = dbReader.getRules();
-                    log.info("Received message: {}", message);
-
-                    var filterMessages = ruleProcessor.processing(Message.builder().value(message).build(), rules);
-                    if (filterMessages.isFilterState()) {
-                        kafkaWriter.processing(filterMessages);
-                    }
-                }
+            if (workerPool == null) {
+                processSequentially(dbReader);
+            } else {
+                processByPartitions(dbReader);
             }
         } catch (Exception e) {
             log.error("Error !!!!!!11!: {}", e.getMessage(), e);
         } finally {
             try {
                 dbReader.stopPeriodicRuleUpdate();
+                if (workerPool != null) {
+                    workerPool.shutdown();
+                }
                 kafkaConsumer.close();
             } catch (Exception ex) {
                 log.error("Error !!11!!!: {}", ex.getMessage(), ex);
@@ -78,4 +94,123 @@ public class KafkaReaderImpl implements KafkaReader {
             Thread.currentThread().interrupt();
         }
     }
+
+    private void processSequentially(DbReaderImpl dbReader) {
+        boolean isTrue = true;
+        while (isTrue) {
+            var records = kafkaConsumer.poll(Duration.ofMillis(100));
+            log.info("Received {} records from Kafka", records.count());
+            handle(ruleProcessor, records, dbReader.getProgram());
+        }
+    }
+
+    private void processByPartitions(DbReaderImpl dbReader) {
+        boolean isTrue = true;
+        while (isTrue) {
+            var records = kafkaConsumer.poll(Duration.ofMillis(100));
+            log.info("Received {} records from Kafka", records.count());
+            var program = dbReader.getProgram();
+            for (TopicPartition partition : records.partitions()) {
+                workerPool.submit(partition, records.records(partition), program);
+                kafkaConsumer.pause(Collections.singletonList(partition));
+            }
+
+            completeBatches(workerPool.drainCompleted());
+        }
+    }
+
+    private void completeBatches(List<PartitionWorkerPool.BatchResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        List<TopicPartition> assigned = new ArrayList<>();
+        for (PartitionWorkerPool.BatchResult result : results) {
+            TopicPartition partition = result.getPartition();
+            if (!kafkaConsumer.assignment().contains(partition)) {
+                continue;
+            }
+
+            if (result.isSuccess()) {
+                offsets.put(partition, new OffsetAndMetadata(result.getNextOffset()));
+            } else {
+                log.warn("Reprocessing partition {} from offset {}", partition, result.getFirstOffset());
+                kafkaConsumer.seek(partition, result.getFirstOffset());
+            }
+            assigned.add(partition);
+        }
+
+        kafkaConsumer.resume(assigned);
+        if (!offsets.isEmpty()) {
+            kafkaConsumer.commitAsync(offsets, (committed, exception) -> {
+                if (exception != null) {
+                    log.error("Error committing offsets {}: {}", committed, exception.getMessage());
+                }
+            });
+        }
+    }
+
+    private CompletableFuture<Void> handle(RuleProcessor processor, Iterable<ConsumerRecord<String, byte[]>> records, FilterProgram program) {
+        if (byteMode) {
+            return kafkaWriter.send(processor.processing(records, program));
+        }
+
+        List<Message> passedMessages = new ArrayList<>();
+        for (var r : records) {
+            var filterMessages = processor.processing(toMessage(r.value()), program);
+            if (filterMessages.isFilterState()) {
+                passedMessages.add(filterMessages);
+            }
+        }
+
+        return kafkaWriter.send(passedMessages);
+    }
+
+    private Message toMessage(byte[] value) {
+        String message = value == null ? null : new String(value, StandardCharsets.UTF_8);
+        log.info("Received message: {}", message);
+        return Message.builder().value(message).build();
+    }
+
+    /**
+     * Перед отзывом партиций дожидается их пачек и подтверждает обработанные смещения.
+     * Потерянные партиции (сессия истекла, и они уже переданы другому потребителю) подтвердить нельзя:
+     * результаты пачек отбрасываются, а записи после последнего подтверждённого смещения перечитает новый владелец.
+     */
+    static class CommitOnRevokeListener implements ConsumerRebalanceListener {
+        private final Consumer<String, byte[]> kafkaConsumer;
+        private final PartitionWorkerPool workerPool;
+
+        CommitOnRevokeListener(Consumer<String, byte[]> kafkaConsumer, PartitionWorkerPool workerPool) {
+            this.kafkaConsumer = kafkaConsumer;
+            this.workerPool = workerPool;
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            for (PartitionWorkerPool.BatchResult result : workerPool.await(partitions)) {
+                if (result.isSuccess()) {
+                    offsets.put(result.getPartition(), new OffsetAndMetadata(result.getNextOffset()));
+                }
+            }
+
+            if (!offsets.isEmpty()) {
+                log.info("Committing offsets of revoked partitions: {}", offsets);
+                kafkaConsumer.commitSync(offsets);
+            }
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            List<PartitionWorkerPool.BatchResult> results = workerPool.await(partitions);
+            log.warn("Lost partitions {}, dropping {} processed batches without commit", partitions, results.size());
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            log.info("Assigned partitions: {}", partitions);
+        }
+    }
 }
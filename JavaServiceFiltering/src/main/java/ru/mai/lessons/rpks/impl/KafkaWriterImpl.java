@@ -4,34 +4,124 @@ import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import ru.mai.lessons.rpks.KafkaWriter;
 import ru.mai.lessons.rpks.model.Message;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 public class KafkaWriterImpl implements KafkaWriter {
     private final Config config;
-    private final KafkaProducer<String, String> producer;
+    private final KafkaProducer<String, byte[]> producer;
+    private final String topicOut;
+    private final Map<Long, String> filterTopics;
 
     public KafkaWriterImpl(Config config) {
         this.config = config;
         this.producer = new KafkaProducer<>(getKafkaProperties());
+        this.topicOut = config.getString("kafka.consumer.topic.out");
+        this.filterTopics = getFilterTopics();
+    }
+
+    private Map<Long, String> getFilterTopics() {
+        Map<Long, String> topics = new HashMap<>();
+        Config filtersConfig = config.getConfig("kafka.consumer.topic.filters");
+        filtersConfig.root().forEach((filterId, topic) ->
+                topics.put(Long.parseLong(filterId), topic.unwrapped().toString()));
+
+        log.info("Output topics by filter id: {}, default topic: {}", topics, topicOut);
+        return topics;
     }
 
     private Properties getKafkaProperties() {
         Properties properties = new Properties();
         properties.put("bootstrap.servers", config.getString("kafka.producer.bootstrap.servers"));
         properties.put("key.serializer", StringSerializer.class.getName());
-        properties.put("value.serializer", StringSerializer.class.getName());
+        properties.put("value.serializer", ByteArraySerializer.class.getName());
 
         return properties;
     }
 
     @Override
     public void processing(Message message) {
-        producer.send(new ProducerRecord<>(config.getString("kafka.consumer.topic.out"), message.getValue()));
+        send(message);
         log.info("Message sent");
     }
+
+    @Override
+    public CompletableFuture<Void> send(Message message) {
+        byte[] payload = payload(message);
+        List<String> topics = topics(message);
+        if (topics.size() == 1) {
+            return send(topics.get(0), payload);
+        }
+
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[topics.size()];
+        for (int i = 0; i < acks.length; i++) {
+            acks[i] = send(topics.get(i), payload);
+        }
+
+        return CompletableFuture.allOf(acks);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<?>[] acks = new CompletableFuture<?>[messages.size()];
+        for (int i = 0; i < acks.length; i++) {
+            acks[i] = send(messages.get(i));
+        }
+        log.info("Sent batch of {} messages", acks.length);
+
+        return CompletableFuture.allOf(acks);
+    }
+
+    private CompletableFuture<Void> send(String topic, byte[] payload) {
+        CompletableFuture<Void> ack = new CompletableFuture<>();
+        producer.send(new ProducerRecord<>(topic, payload), (metadata, exception) -> {
+            if (exception != null) {
+                ack.completeExceptionally(exception);
+            } else {
+                ack.complete(null);
+            }
+        });
+
+        return ack;
+    }
+
+    private List<String> topics(Message message) {
+        List<Long> filterIds = message.getFilterIds();
+        if (filterIds == null || filterIds.isEmpty()) {
+            return List.of(topicOut);
+        }
+
+        List<String> topics = new ArrayList<>(filterIds.size());
+        for (Long filterId : filterIds) {
+            String topic = filterTopics.getOrDefault(filterId, topicOut);
+            if (!topics.contains(topic)) {
+                topics.add(topic);
+            }
+        }
+
+        return topics;
+    }
+
+    private static byte[] payload(Message message) {
+        if (message.getRawValue() != null) {
+            return message.getRawValue();
+        }
+
+        return message.getValue() == null ? null : message.getValue().getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,146 @@
+package ru.mai.lessons.rpks.impl;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import ru.mai.lessons.rpks.RuleProcessor;
+import ru.mai.lessons.rpks.filter.FilterProgram;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Пул потоков обработки, в котором за каждой партицией закреплён один поток.
+ * Пачки записей одной партиции выполняются последовательно в порядке отправки, поэтому порядок внутри партиции сохраняется,
+ * а разные партиции обрабатываются параллельно.
+ * <p>
+ * Методы submit, drainCompleted и await вызываются только из потока, который делает poll.
+ */
+@Slf4j
+public class PartitionWorkerPool {
+    public interface RecordHandler {
+        public CompletableFuture<Void> handle(RuleProcessor ruleProcessor, List<ConsumerRecord<String, byte[]>> records, FilterProgram program); // обрабатывает пачку записей и возвращает future подтверждения записи прошедших сообщений в выходные топики
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class BatchResult {
+        private final TopicPartition partition;
+        private final long firstOffset;
+        private final long nextOffset;
+        private final boolean success;
+    }
+
+    private final ExecutorService[] workers;
+    private final RuleProcessor[] ruleProcessors;
+    private final RecordHandler recordHandler;
+    private final Map<TopicPartition, Integer> workerByPartition = new HashMap<>();
+    private final Map<TopicPartition, Future<BatchResult>> inFlight = new HashMap<>();
+    private int nextWorker;
+
+    public PartitionWorkerPool(int workerThreads, Supplier<RuleProcessor> ruleProcessorFactory, RecordHandler recordHandler) {
+        this.workers = new ExecutorService[workerThreads];
+        this.ruleProcessors = new RuleProcessor[workerThreads];
+        this.recordHandler = recordHandler;
+
+        for (int i = 0; i < workerThreads; i++) {
+            String threadName = "filtering-worker-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, threadName));
+            ruleProcessors[i] = ruleProcessorFactory.get();
+        }
+        log.info("Started {} partition workers", workerThreads);
+    }
+
+    public void submit(TopicPartition partition, List<ConsumerRecord<String, byte[]>> records, FilterProgram program) {
+        int worker = workerByPartition.computeIfAbsent(partition, p -> nextWorker++ % workers.length);
+        RuleProcessor ruleProcessor = ruleProcessors[worker];
+        inFlight.put(partition, workers[worker].submit(() -> process(partition, records, program, ruleProcessor)));
+    }
+
+    public List<BatchResult> drainCompleted() {
+        List<BatchResult> results = new ArrayList<>();
+        Iterator<Future<BatchResult>> iterator = inFlight.values().iterator();
+        while (iterator.hasNext()) {
+            Future<BatchResult> batch = iterator.next();
+            if (batch.isDone()) {
+                results.add(result(batch));
+                iterator.remove();
+            }
+        }
+
+        return results;
+    }
+
+    public List<BatchResult> await(Collection<TopicPartition> partitions) {
+        List<BatchResult> results = new ArrayList<>();
+        for (TopicPartition partition : partitions) {
+            Future<BatchResult> batch = inFlight.remove(partition);
+            if (batch != null) {
+                results.add(result(batch));
+            }
+            workerByPartition.remove(partition);
+        }
+
+        return results;
+    }
+
+    public void shutdown() {
+        log.info("Stopping partition workers");
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        try {
+            for (ExecutorService worker : workers) {
+                if (!worker.awaitTermination(5, TimeUnit.SECONDS)) {
+                    worker.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.error("Interrupted while stopping partition workers");
+            for (ExecutorService worker : workers) {
+                worker.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private BatchResult process(TopicPartition partition, List<ConsumerRecord<String, byte[]>> records, FilterProgram program, RuleProcessor ruleProcessor) {
+        long firstOffset = records.get(0).offset();
+        long nextOffset = records.get(records.size() - 1).offset() + 1;
+
+        try {
+            recordHandler.handle(ruleProcessor, records, program).get();
+            return new BatchResult(partition, firstOffset, nextOffset, true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BatchResult(partition, firstOffset, nextOffset, false);
+        } catch (Exception e) {
+            log.error("Error processing partition {} from offset {}: {}", partition, firstOffset, e.getMessage(), e);
+            return new BatchResult(partition, firstOffset, nextOffset, false);
+        }
+    }
+
+    private BatchResult result(Future<BatchResult> batch) {
+        try {
+            return batch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for partition batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Partition batch failed", e.getCause());
+        }
+    }
+}
@@ -1,83 +1,121 @@
 package ru.mai.lessons.rpks.impl;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import com.typesafe.config.Config;
 import lombok.extern.slf4j.Slf4j;
-import org.jooq.exception.IOException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import ru.mai.lessons.rpks.RuleProcessor;
+import ru.mai.lessons.rpks.filter.FilterEvaluator;
+import ru.mai.lessons.rpks.filter.FilterProgram;
 import ru.mai.lessons.rpks.model.Message;
 import ru.mai.lessons.rpks.model.Rule;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
 @Slf4j
 public class RuleProcessorImpl implements RuleProcessor {
-    enum filteringFunctions {
-        equals,
-        contains,
-        not_equals,
-        not_contains
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final boolean streamingEvaluation;
+    private final FilterEvaluator filterEvaluator;
+
+    public RuleProcessorImpl() {
+        this(true);
     }
 
-    private static final ObjectMapper objectMapper = new ObjectMapper();
+    public RuleProcessorImpl(Config config) {
+        this(config.getBoolean("application.streamingEvaluation"), config.getInt("application.reorderIntervalRecords"));
+    }
+
+    public RuleProcessorImpl(boolean streamingEvaluation) {
+        this(streamingEvaluation, 0);
+    }
 
+    public RuleProcessorImpl(boolean streamingEvaluation, int reorderIntervalRecords) {
+        this.streamingEvaluation = streamingEvaluation;
+        this.filterEvaluator = new FilterEvaluator(objectMapper.getFactory(), reorderIntervalRecords);
+    }
+
+    // для разовых проверок и тестов: правила компилируются при каждом вызове, некорректные правила не выполняются,
+    // как и при обновлении из БД. Сообщения из Kafka проверяются программой, которую компилирует DbReaderImpl
     @Override
     public Message processing(Message message, Rule[] rules) {
         if (rules == null || rules.length == 0) {
             throw new IllegalArgumentException("Rules must not be empty");
         }
 
-        log.info("Processing message {}", message.getValue());
+        return processing(message, FilterProgram.compile(rules));
+    }
 
-        try {
-            JsonNode jsonNode = objectMapper.readTree(message.getValue());
-            message.setFilterState(true);
-
-            for (Rule rule : rules) {
-                JsonNode fieldValue = jsonNode.get(rule.getFieldName());
-
-                if (fieldValue == null) {
-                    log.warn("Field '{}' not found in message", rule.getFieldName());
-                    message.setFilterState(false);
-                    return message;
-                }
-
-                if (!applyFilters(fieldValue.asText(), rule)) {
-                    message.setFilterState(false);
-                    return message;
-                }
-            }
+    // одно сообщение проверяется пакетным методом как пачка из одной записи, чтобы два пути не расходились
+    @Override
+    public Message processing(Message message, FilterProgram program) {
+        byte[] rawValue = message.getRawValue();
+        if (rawValue == null && message.getValue() != null) {
+            rawValue = message.getValue().getBytes(StandardCharsets.UTF_8);
+        }
 
-        } catch (IOException | JsonProcessingException ex) {
-            log.error("Exception while reading json message: {}", ex.getMessage(), ex);
-            message.setFilterState(false);
-            return message;
+        List<Message> passed = processing(List.of(new ConsumerRecord<String, byte[]>("", 0, 0L, null, rawValue)), program);
+        message.setFilterState(!passed.isEmpty());
+        if (!passed.isEmpty()) {
+            message.setFilterIds(passed.get(0).getFilterIds());
         }
 
         return message;
     }
 
-    private boolean applyFilters(String fieldValue, Rule rule) {
-        String filterValue = rule.getFilterValue();
+    @Override
+    public List<Message> processing(Iterable<ConsumerRecord<String, byte[]>> records, FilterProgram program) {
+        List<Message> passedMessages = new ArrayList<>();
+        int total = 0;
+        for (ConsumerRecord<String, byte[]> consumerRecord : records) {
+            total++;
+            byte[] rawValue = consumerRecord.value();
+            int passed = filter(program, rawValue);
+            if (passed > 0) {
+                passedMessages.add(Message.builder()
+                        .rawValue(rawValue)
+                        .filterState(true)
+                        .filterIds(passedFilterIds(program, passed))
+                        .build());
+            }
+        }
+
+        log.info("Filtered {} of {} records", passedMessages.size(), total);
+        return passedMessages;
+    }
+
+    // возвращает число фильтров, которые прошло сообщение, ошибки разбора JSON считаются непрохождением
+    private int filter(FilterProgram program, byte[] rawValue) {
+        if (program.isEmpty() || rawValue == null) {
+            return 0;
+        }
 
         try {
-            filteringFunctions filterFunction = filteringFunctions.valueOf(rule.getFilterFunctionName().toLowerCase());
-
-            switch (filterFunction) {
-                case equals:
-                    return fieldValue.equals(filterValue);
-                case contains:
-                    return fieldValue.contains(filterValue);
-                case not_equals:
-                    return !fieldValue.equals(filterValue);
-                case not_contains:
-                    return !fieldValue.contains(filterValue);
-                default:
-                    throw  new UnsupportedOperationException("Unsupported filter function: " + rule.getFilterFunctionName());
-            }
-        } catch (IllegalArgumentException e) {
-            log.error("Invalid filter function in rule: {}", rule.getFilterFunctionName());
-            throw new UnsupportedOperationException("Invalid filter function: " + rule.getFilterFunctionName(), e);
+            return evaluate(program, rawValue);
+        } catch (IOException ex) {
+            log.error("Exception while reading json message: {}", ex.getMessage(), ex);
+            return 0;
         }
     }
+
+    private int evaluate(FilterProgram program, byte[] rawValue) throws IOException {
+        return streamingEvaluation
+                ? filterEvaluator.evaluate(program, rawValue)
+                : filterEvaluator.evaluate(program, objectMapper.readTree(rawValue));
+    }
+
+    private List<Long> passedFilterIds(FilterProgram program, int passed) {
+        int[] passedFilters = filterEvaluator.getPassedFilters();
+        List<Long> filterIds = new ArrayList<>(passed);
+        for (int i = 0; i < passed; i++) {
+            filterIds.add(program.getFilterId(passedFilters[i]));
+        }
+
+        return filterIds;
+    }
 }
@@ -0,0 +1,76 @@
+package ru.mai.lessons.rpks.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики фильтрации, публикуемые через JMX как ru.mai.lessons.rpks:type=FilterMetrics.
+ * <p>
+ * У каждого потока обработки партиций свой FilterEvaluator и своя статистика, поэтому порядок правил
+ * публикуется по каждому потоку отдельно, а счётчики суммируются по всем потокам.
+ */
+@Slf4j
+public final class FilterMetrics implements FilterMetricsMXBean {
+    private static final FilterMetrics INSTANCE = register(new FilterMetrics());
+
+    private final AtomicLong reorderCount = new AtomicLong();
+    private final LongAdder evaluatedRecords = new LongAdder();
+    private final Map<String, String[]> ruleOrders = new ConcurrentSkipListMap<>();
+
+    private FilterMetrics() {
+    }
+
+    public static FilterMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // вызывается потоком, который проверяет сообщения, порядок сохраняется под его именем
+    public void recordReorder(String[] ruleOrder, long evaluatedRecords) {
+        ruleOrders.put(Thread.currentThread().getName(), ruleOrder);
+        this.evaluatedRecords.add(evaluatedRecords);
+        reorderCount.incrementAndGet();
+    }
+
+    @Override
+    public String[] getRuleOrder() {
+        List<String> lines = new ArrayList<>();
+        ruleOrders.forEach((worker, ruleOrder) -> {
+            for (String rule : ruleOrder) {
+                lines.add(worker + ": " + rule);
+            }
+        });
+        return lines.toArray(new String[0]);
+    }
+
+    @Override
+    public long getReorderCount() {
+        return reorderCount.get();
+    }
+
+    @Override
+    public long getEvaluatedRecords() {
+        return evaluatedRecords.sum();
+    }
+
+    private static FilterMetrics register(FilterMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName("ru.mai.lessons.rpks:type=FilterMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            log.warn("Failed to register filter metrics: {}", e.getMessage());
+        }
+
+        return metrics;
+    }
+}
@@ -0,0 +1,7 @@
+package ru.mai.lessons.rpks.metrics;
+
+public interface FilterMetricsMXBean {
+    public String[] getRuleOrder(); // текущий порядок проверки полей и правил со статистикой отсева и стоимости, строки вида "<поток>: <правило>" - у каждого потока обработки партиций свой порядок
+    public long getReorderCount(); // сколько раз порядок правил пересчитывался, всего по всем потокам
+    public long getEvaluatedRecords(); // сколько сообщений проверено с учётом статистики, всего по всем потокам
+}
@@ -4,11 +4,17 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.List;
+
 @Data
 @Builder
 @AllArgsConstructor
 public class Message {
     private String value; // сообщение из Kafka в формате JSON
 
+    private byte[] rawValue; // то же сообщение в виде исходных байт UTF-8 из Kafka, заполняется вместо value в байтовом режиме (application.byteMode)
+
     private boolean filterState; // true - удовлетворены условиях всех правил (Rule), false - хотя бы одно условие не прошло проверку.
+
+    private List<Long> filterIds; // id фильтров (filter_id), условиям всех правил которых удовлетворяет сообщение, по ним выбираются выходные топики
 }
@@ -0,0 +1,379 @@
+package ru.mai.lessons.rpks.filter;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.impl.RuleProcessorImpl;
+import ru.mai.lessons.rpks.model.Message;
+import ru.mai.lessons.rpks.model.Rule;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterProgramTest {
+
+    private final RuleProcessorImpl treeProcessor = new RuleProcessorImpl(false);
+    private final RuleProcessorImpl streamingProcessor = new RuleProcessorImpl(true);
+
+    /**
+     * Проверяет, что имена функций разбираются без учёта регистра при компиляции правил
+     */
+    @Test
+    void testCompileFunctionNames() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "name", "EQUALS", "alex"),
+                rule(2L, "name", "Not_Contains", "ivanov")
+        });
+
+        CompiledRule[] compiledRules = program.getFilters()[0].getRules();
+        assertEquals(2, compiledRules.length);
+        assertEquals(FilterFunction.EQUALS, compiledRules[0].getFunction());
+        assertEquals(FilterFunction.NOT_CONTAINS, compiledRules[1].getFunction());
+    }
+
+    /**
+     * Проверяет, что правило с неизвестной функцией при компиляции становится невыполнимым и не мешает другим фильтрам
+     */
+    @Test
+    void testCompileRejectsInvalidFunction() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "name", "equals", "alex"),
+                rule(2L, "name", "starts_with", "al"),
+                new Rule(2L, 3L, "name", "equals", "alex")
+        });
+
+        assertTrue(program.getFilters()[0].getRules()[1].isRejected());
+        assertEquals(List.of(2L), passedFilterIds(program, "{\"name\":\"alex\"}"));
+
+        // разовая проверка по правилам обрабатывает некорректное правило так же, без исключения
+        Message message = streamingProcessor.processing(Message.builder().value("{\"name\":\"\"}").build(), new Rule[]{
+                rule(1L, "", "equals", "alex"),
+                new Rule(2L, 2L, "name", "equals", "")
+        });
+        assertEquals(List.of(2L), message.getFilterIds());
+    }
+
+    /**
+     * Проверяет числовые функции: число читается из JSON без перевода в текст, строка с числом тоже сравнивается как число
+     */
+    @Test
+    void testNumericFunctions() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "age", "gt", "18"),
+                rule(2L, "weight", "lt", "100.5"),
+                rule(3L, "score", "between", "-1,1e3")
+        });
+
+        assertTrue(filter(program, "{\"age\":19, \"weight\":100.25, \"score\":-1}"));
+        assertTrue(filter(program, "{\"age\":\"18.5\", \"weight\":-3, \"score\":1000.0}"));
+        assertFalse(filter(program, "{\"age\":18, \"weight\":1, \"score\":0}"));
+        assertFalse(filter(program, "{\"age\":1e2, \"weight\":100.5, \"score\":0}"));
+        assertFalse(filter(program, "{\"age\":99999999999999999999, \"weight\":1, \"score\":1001}"));
+        assertFalse(filter(program, "{\"age\":\"old\", \"weight\":1, \"score\":0}"));
+        assertFalse(filter(program, "{\"age\":[20], \"weight\":null, \"score\":true}"));
+    }
+
+    /**
+     * Проверяет, что целые числа больше 2^53 (идентификаторы, метки времени) сравниваются точно, без приведения к double
+     */
+    @Test
+    void testNumericFunctionsKeepLongPrecision() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "id", "gt", "9007199254740992"),
+                rule(2L, "ts", "between", "1700000000000000001,1700000000000000002")
+        });
+
+        assertTrue(filter(program, "{\"id\":9007199254740993, \"ts\":1700000000000000001}"));
+        assertTrue(filter(program, "{\"id\":\"9007199254740993\", \"ts\":\"1700000000000000002\"}"));
+        assertFalse(filter(program, "{\"id\":9007199254740992, \"ts\":1700000000000000001}"));
+        assertFalse(filter(program, "{\"id\":9007199254740993, \"ts\":1700000000000000000}"));
+        assertFalse(filter(program, "{\"id\":9007199254740993, \"ts\":1700000000000000003}"));
+    }
+
+    /**
+     * Проверяет функции matches, in и not_in
+     */
+    @Test
+    void testPatternAndSetFunctions() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "email", "matches", "[a-z.]+@mai\\.ru"),
+                rule(2L, "city", "in", "moscow, kazan,ufa"),
+                rule(3L, "status", "not_in", "blocked,deleted")
+        });
+
+        assertTrue(filter(program, "{\"email\":\"alex.p@mai.ru\", \"city\":\"kazan\", \"status\":\"active\"}"));
+        assertFalse(filter(program, "{\"email\":\"alex@mai.ru.com\", \"city\":\"kazan\", \"status\":\"active\"}"));
+        assertFalse(filter(program, "{\"email\":\"alex@mai.ru\", \"city\":\"omsk\", \"status\":\"active\"}"));
+        assertFalse(filter(program, "{\"email\":\"alex@mai.ru\", \"city\":\"moscow\", \"status\":\"deleted\"}"));
+    }
+
+    /**
+     * Проверяет, что правила с некорректными числами и регулярными выражениями отклоняются при компиляции
+     * и не выполняются, а остальные правила из БД применяются
+     */
+    @Test
+    void testCompileRejectsInvalidValues() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                new Rule(1L, 1L, "age", "gt", "old"),
+                new Rule(2L, 2L, "age", "between", "5"),
+                new Rule(3L, 3L, "age", "between", "5,1"),
+                new Rule(4L, 4L, "name", "matches", "[a-"),
+                new Rule(5L, 5L, "", "equals", "alex"),
+                new Rule(6L, 6L, "age", "gt", "1")
+        });
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(program.getFilters()[i].getRules()[0].isRejected());
+        }
+        assertFalse(program.getFilters()[5].getRules()[0].isRejected());
+        assertEquals(List.of(6L), passedFilterIds(program, "{\"age\":3, \"name\":\"[a-\", \"\":\"alex\"}"));
+    }
+
+    /**
+     * Проверяет применение скомпилированных правил к сообщениям
+     */
+    @Test
+    void testProcessingCompiledProgram() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "name", "contains", "alex"),
+                rule(2L, "age", "not_equals", "20")
+        });
+
+        assertTrue(filter(program, "{\"name\":\"alexander\", \"age\":18}"));
+        assertFalse(filter(program, "{\"name\":\"alexander\", \"age\":20}"));
+        assertFalse(filter(program, "{\"name\":\"pushkin\", \"age\":18}"));
+        assertFalse(filter(program, "{\"age\":18}"));
+        assertFalse(filter(program, "{\"name\":\"alexander\", \"age\":}"));
+        assertFalse(filter(program, ""));
+    }
+
+    /**
+     * Проверяет, что без правил ни одно сообщение не проходит фильтрацию
+     */
+    @Test
+    void testProcessingEmptyProgram() {
+        assertTrue(FilterProgram.compile(new Rule[0]).isEmpty());
+        assertFalse(filter(FilterProgram.EMPTY, "{\"name\":\"alex\"}"));
+    }
+
+    /**
+     * Проверяет, что потоковый разбор приводит значения к тексту так же, как JsonNode.asText()
+     */
+    @Test
+    void testStreamingTextValues() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "age", "equals", "18"),
+                rule(2L, "weight", "equals", "70.5"),
+                rule(3L, "active", "equals", "true"),
+                rule(4L, "nick", "equals", "null"),
+                rule(5L, "tags", "equals", "")
+        });
+
+        assertTrue(filter(program, "{\"age\":18, \"weight\":70.50, \"active\":true, \"nick\":null, \"tags\":[1, {\"a\":2}]}"));
+        assertFalse(filter(program, "{\"age\":\"18 \", \"weight\":70.5, \"active\":true, \"nick\":null, \"tags\":[]}"));
+    }
+
+    /**
+     * Проверяет, что потоковый разбор пропускает вложенные поля, которых нет в правилах,
+     * и не путает их с полями верхнего уровня
+     */
+    @Test
+    void testStreamingSkipsUnreferencedFields() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{rule(1L, "name", "equals", "alex")});
+
+        assertTrue(filter(program, "{\"payload\":{\"name\":\"pushkin\", \"items\":[{\"name\":\"x\"}]}, \"name\":\"alex\"}"));
+        assertFalse(filter(program, "{\"payload\":{\"name\":\"alex\"}}"));
+        assertFalse(filter(program, "[{\"name\":\"alex\"}]"));
+    }
+
+    /**
+     * Проверяет правила для вложенных полей: путь через точку и JSON Pointer указывают на одно поле,
+     * а ветки документа вне путей из правил не читаются
+     */
+    @Test
+    void testNestedFieldPaths() throws Exception {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                new Rule(1L, 1L, "payload.user.country", "equals", "ru"),
+                new Rule(1L, 2L, "/payload/user/age", "gt", "18"),
+                new Rule(2L, 3L, "/payload/user/country", "not_equals", "ru"),
+                new Rule(3L, 4L, "/a~1b/c~0d", "equals", "x")
+        });
+
+        assertEquals(3, program.getFieldCount());
+        assertEquals(List.of(1L), passedFilterIds(program,
+                "{\"id\":{\"country\":\"en\"}, \"payload\":{\"items\":[{\"user\":1}], \"user\":{\"country\":\"ru\", \"age\":20}}}"));
+        assertEquals(List.of(2L), passedFilterIds(program, "{\"payload\":{\"user\":{\"country\":\"en\", \"age\":20}}}"));
+        assertEquals(List.of(3L), passedFilterIds(program, "{\"a/b\":{\"c~d\":\"x\"}}"));
+        assertNull(passedFilterIds(program, "{\"payload.user.country\":\"ru\", \"payload\":{\"user\":\"ru\"}}"));
+        assertTrue(FilterProgram.compile(new Rule[]{rule(1L, "payload..user", "equals", "ru")}).getFilters()[0].getRules()[0].isRejected());
+
+        FilterEvaluator evaluator = new FilterEvaluator(new JsonFactory());
+        FilterProgram countryProgram = FilterProgram.compile(new Rule[]{rule(1L, "payload.user.country", "equals", "ru")});
+        assertEquals(1, evaluator.evaluate(countryProgram, "{\"payload\":{\"user\":{\"country\":\"ru\", \"rest\": not parsed"));
+    }
+
+    /**
+     * Проверяет, что потоковый разбор завершается, как только все поля из правил найдены
+     */
+    @Test
+    void testStreamingStopsAfterReferencedFields() throws Exception {
+        FilterEvaluator evaluator = new FilterEvaluator(new JsonFactory());
+        FilterProgram program = FilterProgram.compile(new Rule[]{rule(1L, "name", "equals", "alex")});
+
+        assertEquals(1, evaluator.evaluate(program, "{\"name\":\"alex\", \"rest\": not parsed"));
+        assertEquals(0, evaluator.evaluate(program, "{\"name\":\"pushkin\", \"rest\": not parsed"));
+    }
+
+    /**
+     * Проверяет, что правила группируются по filter_id и все фильтры проверяются за один разбор сообщения
+     */
+    @Test
+    void testMultipleFilters() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                new Rule(1L, 1L, "name", "equals", "alex"),
+                new Rule(1L, 2L, "age", "equals", "18"),
+                new Rule(2L, 3L, "name", "equals", "pushkin"),
+                new Rule(3L, 4L, "name", "contains", "a"),
+                new Rule(3L, 5L, "age", "not_equals", "20"),
+                new Rule(4L, 6L, "sex", "equals", "M")
+        });
+
+        assertEquals(4, program.getFilterCount());
+        assertEquals(3, program.getFieldCount());
+
+        assertEquals(List.of(1L, 3L, 4L), passedFilterIds(program, "{\"name\":\"alex\", \"age\":18, \"sex\":\"M\"}"));
+        assertEquals(List.of(3L), passedFilterIds(program, "{\"name\":\"alex\", \"age\":19}"));
+        assertEquals(List.of(2L, 4L), passedFilterIds(program, "{\"sex\":\"M\", \"name\":\"pushkin\", \"age\":20}"));
+        assertEquals(List.of(2L), passedFilterIds(program, "{\"name\":\"pushkin\"}"));
+        assertNull(passedFilterIds(program, "{\"name\":\"ivanov\", \"age\":20, \"sex\":\"F\"}"));
+    }
+
+    /**
+     * Проверяет индекс правил equals, когда несколько фильтров ждут разные значения одного поля
+     */
+    @Test
+    void testEqualsIndexWithManyFilters() {
+        Rule[] rules = new Rule[200];
+        for (int i = 0; i < 100; i++) {
+            rules[2 * i] = new Rule((long) i, 2L * i, "country", "equals", "c" + i);
+            rules[2 * i + 1] = new Rule((long) i, 2L * i + 1, "score", "not_equals", String.valueOf(i));
+        }
+        FilterProgram program = FilterProgram.compile(rules);
+
+        assertEquals(List.of(42L), passedFilterIds(program, "{\"country\":\"c42\", \"score\":1}"));
+        assertNull(passedFilterIds(program, "{\"country\":\"c42\", \"score\":42}"));
+        assertNull(passedFilterIds(program, "{\"score\":1, \"country\":\"c100\"}"));
+    }
+
+    /**
+     * Проверяет, что по накопленной статистике первыми проверяются поля и правила, которые чаще отсеивают сообщения,
+     * а результат фильтрации от порядка не зависит
+     */
+    @Test
+    void testAdaptiveRuleOrder() {
+        FilterEvaluator evaluator = new FilterEvaluator(new JsonFactory(), 100);
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                rule(1L, "age", "not_equals", "0"),
+                rule(2L, "name", "contains", "a"),
+                rule(3L, "name", "not_contains", "bob"),
+                rule(4L, "city", "not_equals", "moscow")
+        });
+        JsonNode rejected = jsonNode("{\"age\":18, \"name\":\"alex bob\", \"city\":\"kazan\"}");
+        JsonNode passed = jsonNode("{\"age\":18, \"name\":\"alex\", \"city\":\"kazan\"}");
+
+        for (int i = 0; i < 99; i++) {
+            assertEquals(0, evaluator.evaluate(program, rejected));
+        }
+        assertTrue(evaluator.getRuleOrder()[0].startsWith("age"));
+        assertEquals(1, evaluator.evaluate(program, passed));
+
+        String[] ruleOrder = evaluator.getRuleOrder();
+        assertEquals(3, ruleOrder.length);
+        assertTrue(ruleOrder[0].startsWith("name"), ruleOrder[0]);
+        assertTrue(ruleOrder[0].indexOf("name not_contains bob") < ruleOrder[0].indexOf("name contains a"), ruleOrder[0]);
+        assertEquals(0, evaluator.evaluate(program, rejected));
+        assertEquals(1, evaluator.evaluate(program, passed));
+    }
+
+    /**
+     * Проверяет, что в байтовом режиме правила применяются к исходным байтам UTF-8 без декодирования в строку
+     */
+    @Test
+    void testProcessingRawBytes() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{rule(1L, "name", "contains", "пушкин")});
+        byte[] rawValue = "{\"name\":\"александр пушкин\"}".getBytes(StandardCharsets.UTF_8);
+
+        Message message = streamingProcessor.processing(Message.builder().rawValue(rawValue).build(), program);
+
+        assertTrue(message.isFilterState());
+        assertSame(rawValue, message.getRawValue());
+        assertNull(message.getValue());
+        assertFalse(filter(program, "{\"name\":\"александр\"}"));
+        assertFalse(streamingProcessor.processing(Message.builder().build(), program).isFilterState());
+    }
+
+    /**
+     * Проверяет пакетную обработку: возвращаются только прошедшие записи с исходными байтами
+     */
+    @Test
+    void testProcessingBatch() {
+        FilterProgram program = FilterProgram.compile(new Rule[]{
+                new Rule(1L, 1L, "name", "equals", "alex"),
+                new Rule(2L, 2L, "age", "equals", "18")
+        });
+        List<ConsumerRecord<String, byte[]>> records = List.of(
+                record(0, "{\"name\":\"alex\", \"age\":18}"),
+                record(1, "{\"name\":\"pushkin\", \"age\":19}"),
+                record(2, "{\"name\":, \"age\":18}"),
+                record(3, "{\"name\":\"pushkin\", \"age\":18}"),
+                new ConsumerRecord<>("test_topic_in", 0, 4, null, null));
+
+        List<Message> passed = streamingProcessor.processing(records, program);
+
+        assertEquals(2, passed.size());
+        assertSame(records.get(0).value(), passed.get(0).getRawValue());
+        assertEquals(List.of(1L, 2L), passed.get(0).getFilterIds());
+        assertSame(records.get(3).value(), passed.get(1).getRawValue());
+        assertEquals(List.of(2L), passed.get(1).getFilterIds());
+        assertTrue(treeProcessor.processing(records, FilterProgram.EMPTY).isEmpty());
+    }
+
+    private static JsonNode jsonNode(String json) {
+        try {
+            return new ObjectMapper().readTree(json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(json, e);
+        }
+    }
+
+    private static ConsumerRecord<String, byte[]> record(long offset, String json) {
+        return new ConsumerRecord<>("test_topic_in", 0, offset, null, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Long> passedFilterIds(FilterProgram program, String json) {
+        List<Long> tree = treeProcessor.processing(Message.builder().value(json).build(), program).getFilterIds();
+        List<Long> streaming = streamingProcessor.processing(Message.builder().value(json).build(), program).getFilterIds();
+        assertEquals(tree, streaming, "Tree and streaming evaluation differ for " + json);
+        return streaming;
+    }
+
+    private boolean filter(FilterProgram program, String json) {
+        byte[] rawValue = json.getBytes(StandardCharsets.UTF_8);
+        boolean tree = treeProcessor.processing(Message.builder().value(json).build(), program).isFilterState();
+        boolean streaming = streamingProcessor.processing(Message.builder().value(json).build(), program).isFilterState();
+        boolean treeBytes = treeProcessor.processing(Message.builder().rawValue(rawValue).build(), program).isFilterState();
+        boolean streamingBytes = streamingProcessor.processing(Message.builder().rawValue(rawValue).build(), program).isFilterState();
+        assertEquals(tree, streaming, "Tree and streaming evaluation differ for " + json);
+        assertEquals(tree, treeBytes, "String and byte evaluation differ for " + json);
+        assertEquals(tree, streamingBytes, "String and byte evaluation differ for " + json);
+        return streaming;
+    }
+
+    private static Rule rule(Long ruleId, String fieldName, String filterFunctionName, String filterValue) {
+        return new Rule(1L, ruleId, fieldName, filterFunctionName, filterValue);
+    }
+}
@@ -0,0 +1,73 @@
+package ru.mai.lessons.rpks.impl;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.filter.FilterProgram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KafkaReaderImplTest {
+    private static final String TOPIC = "test_topic_in";
+
+    private final TopicPartition topicPartition = new TopicPartition(TOPIC, 0);
+    private final MockConsumer<String, byte[]> kafkaConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    private final AtomicInteger handled = new AtomicInteger();
+    private final PartitionWorkerPool workerPool = new PartitionWorkerPool(1, RuleProcessorImpl::new, (ruleProcessor, records, program) -> {
+        handled.addAndGet(records.size());
+        return CompletableFuture.completedFuture(null);
+    });
+    private final KafkaReaderImpl.CommitOnRevokeListener listener = new KafkaReaderImpl.CommitOnRevokeListener(kafkaConsumer, workerPool);
+
+    @AfterEach
+    void shutdown() {
+        workerPool.shutdown();
+    }
+
+    /**
+     * Проверяет, что при отзыве партиции подтверждается смещение после обработанной пачки
+     */
+    @Test
+    void testRevokedPartitionsAreCommitted() {
+        kafkaConsumer.assign(List.of(topicPartition));
+        workerPool.submit(topicPartition, records(10), FilterProgram.EMPTY);
+
+        listener.onPartitionsRevoked(List.of(topicPartition));
+
+        assertEquals(10, handled.get());
+        assertEquals(new OffsetAndMetadata(10L), kafkaConsumer.committed(Set.of(topicPartition)).get(topicPartition));
+    }
+
+    /**
+     * Проверяет, что при потере партиции пачка дожидается завершения, но смещение не подтверждается
+     */
+    @Test
+    void testLostPartitionsAreNotCommitted() {
+        kafkaConsumer.assign(List.of(topicPartition));
+        workerPool.submit(topicPartition, records(10), FilterProgram.EMPTY);
+
+        listener.onPartitionsLost(List.of(topicPartition));
+
+        assertEquals(10, handled.get());
+        assertNull(kafkaConsumer.committed(Set.of(topicPartition)).get(topicPartition));
+        assertTrue(workerPool.drainCompleted().isEmpty());
+    }
+
+    private static List<ConsumerRecord<String, byte[]>> records(int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (long offset = 0; offset < count; offset++) {
+            records.add(new ConsumerRecord<>(TOPIC, 0, offset, null, new byte[0]));
+        }
+        return records;
+    }
+}
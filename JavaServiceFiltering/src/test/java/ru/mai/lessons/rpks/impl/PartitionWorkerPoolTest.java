@@ -0,0 +1,85 @@
+package ru.mai.lessons.rpks.impl;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import ru.mai.lessons.rpks.filter.FilterProgram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartitionWorkerPoolTest {
+    private static final String TOPIC = "test_topic_in";
+
+    /**
+     * Проверяет, что записи одной партиции обрабатываются по порядку в одном потоке,
+     * а результат пачки содержит смещение для коммита
+     */
+    @Test
+    void testOrderWithinPartition() {
+        Map<Integer, List<Long>> offsetsByPartition = new ConcurrentHashMap<>();
+        Map<Integer, String> threadByPartition = new ConcurrentHashMap<>();
+        PartitionWorkerPool workerPool = new PartitionWorkerPool(2, RuleProcessorImpl::new, (ruleProcessor, records, program) -> {
+            for (ConsumerRecord<String, byte[]> consumerRecord : records) {
+                offsetsByPartition.computeIfAbsent(consumerRecord.partition(), p -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(consumerRecord.offset());
+                String thread = threadByPartition.putIfAbsent(consumerRecord.partition(), Thread.currentThread().getName());
+                assertTrue(thread == null || thread.equals(Thread.currentThread().getName()));
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+
+        List<PartitionWorkerPool.BatchResult> results = new ArrayList<>();
+        for (int batch = 0; batch < 3; batch++) {
+            for (int partition = 0; partition < 3; partition++) {
+                workerPool.submit(new TopicPartition(TOPIC, partition), records(partition, batch * 10L, 10), FilterProgram.EMPTY);
+            }
+            while (results.size() < 3 * (batch + 1)) {
+                results.addAll(workerPool.drainCompleted());
+            }
+        }
+        workerPool.shutdown();
+
+        List<Long> expected = LongStream.range(0, 30).boxed().toList();
+        for (int partition = 0; partition < 3; partition++) {
+            assertEquals(expected, offsetsByPartition.get(partition));
+        }
+        assertEquals(9, results.size());
+        assertTrue(results.stream().allMatch(PartitionWorkerPool.BatchResult::isSuccess));
+        assertEquals(30L, results.get(results.size() - 1).getNextOffset());
+    }
+
+    /**
+     * Проверяет, что пачка не подтверждается, если запись в выходной топик завершилась ошибкой
+     */
+    @Test
+    void testFailedSendIsNotCommitted() {
+        PartitionWorkerPool workerPool = new PartitionWorkerPool(1, RuleProcessorImpl::new,
+                (ruleProcessor, records, program) -> CompletableFuture.failedFuture(new IllegalStateException("send failed")));
+
+        TopicPartition topicPartition = new TopicPartition(TOPIC, 0);
+        workerPool.submit(topicPartition, records(0, 0, 10), FilterProgram.EMPTY);
+        List<PartitionWorkerPool.BatchResult> results = workerPool.await(List.of(topicPartition));
+        workerPool.shutdown();
+
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isSuccess());
+        assertEquals(0L, results.get(0).getFirstOffset());
+    }
+
+    private static List<ConsumerRecord<String, byte[]>> records(int partition, long firstOffset, int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (long offset = firstOffset; offset < firstOffset + count; offset++) {
+            records.add(new ConsumerRecord<>(TOPIC, partition, offset, null, new byte[0]));
+        }
+
+        return records;
+    }
+}